@@ -12,20 +12,18 @@ import sim.app.pso.Evaluatable;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.util.Double2D;
-import sim.util.MutableDouble2D;
+import ec.util.MersenneTwisterFast;
 
 public class Agent implements Steppable {
 	private static final long serialVersionUID = 1L;
 
 	public int index;
-	MutableDouble2D bestPosition = new MutableDouble2D();
-	MutableDouble2D position = new MutableDouble2D();
-	MutableDouble2D velocity = new MutableDouble2D();
 	private MimeticDesire model;
 	private Evaluatable fitnessLandscape;
 
-	public MutableDouble2D bestFitnessP;
-	public double bestFitness;
+	// position, velocity and best position are kept by the model in a column
+	// store shared by all the agents, this agent owns the row at index
+	private final AgentState state;
 
 	// steps executed by the agent
 	public int steps;
@@ -33,6 +31,10 @@ public class Agent implements Steppable {
 	// evolutionary behaviour
 	Behaviour behaviour;
 
+	// random stream owned by this agent, behaviours should draw from this
+	// instead of the model random so that results do not depend on the order
+	// (or the thread) in which agents are stepped
+	public MersenneTwisterFast random;
 
 	public int evaluationPeriod = 1;
 
@@ -55,22 +57,27 @@ public class Agent implements Steppable {
 	 */
 	public Agent(double x, double y, double vx, double vy, MimeticDesire model,
 			Evaluatable f, int i) {
-		this.position.setTo(x, y);
-		this.velocity.setTo(vx, vy);
-
 		this.model = model;
+		this.state = model.agentState;
 		this.fitnessLandscape = f;
 		this.index = i;
 		this.steps = 0;
+		this.random = new MersenneTwisterFast(model.random.nextLong());
+
+		state.moveTo(i, x, y);
+		state.vx[i] = vx;
+		state.vy[i] = vy;
 
-		bestFitnessP = new MutableDouble2D(position);
-		bestFitness = getFitness();
+		state.bestX[i] = x;
+		state.bestY[i] = y;
+		state.bestFitness[i] = getFitness();
+		state.snapshot(i, state.bestFitness[i]);
 
 		// setup the behaviour
 		this.behaviour = new MetaCompetition();
 		behaviour.setup(this, model);
 
-		model.space.setObjectLocation(this, new Double2D(position));
+		model.space.setObjectLocation(this, getPosition());
 	}
 
 	
@@ -86,16 +93,18 @@ public class Agent implements Steppable {
 
 		stepBehaviour(behaviour, model);
 
-		// updates the current fitness, and the global fitness in the model
-		updateFitness(getFitness(), position.x, position.y);
+		// the fitness at the new position (and the best fitness) is updated
+		// by the model for all the agents at once, see
+		// MimeticDesire#evaluateAgents()
 
 		steps++;
 	}
 
-	// get a fitness based on the fitness landscape the agent is considering
+	// get a fitness based on the fitness landscape the agent is considering,
+	// this is only computed again after the agent moves
 	public double getFitness() {
 
-		return fitnessLandscape.calcFitness(position.x, position.y);
+		return state.fitness(index, fitnessLandscape);
 
 	}
 
@@ -107,20 +116,84 @@ public class Agent implements Steppable {
 	 * Returns a copy of the agent current position
 	 */
 	public Double2D getPosition() {
-		return new Double2D(position);
+		return new Double2D(state.x[index], state.y[index]);
 	}
 
 	public Double2D getVelocity() {
-		return new Double2D(velocity);
+		return new Double2D(state.vx[index], state.vy[index]);
 	}
 
 	public Double2D getBestFitnessCoordinates() {
-		return new Double2D(bestFitnessP);
+		return new Double2D(state.bestX[index], state.bestY[index]);
 	}
 
 	// sets the agent current velocity to
 	public void setVelocity(Double2D newVelocity) {
-		this.velocity.setTo(newVelocity);
+		setVelocity(newVelocity.x, newVelocity.y);
+	}
+
+	public void setVelocity(double vx, double vy) {
+		state.vx[index] = vx;
+		state.vy[index] = vy;
+	}
+
+	/*
+	 * the following accessors read the agent row in the model state directly,
+	 * behaviours should prefer these over the Double2D getters which copy the
+	 * values into a new object on every call
+	 */
+
+	public double getX() {
+		return state.x[index];
+	}
+
+	public double getY() {
+		return state.y[index];
+	}
+
+	public double getVx() {
+		return state.vx[index];
+	}
+
+	public double getVy() {
+		return state.vy[index];
+	}
+
+	public double getBestX() {
+		return state.bestX[index];
+	}
+
+	public double getBestY() {
+		return state.bestY[index];
+	}
+
+	public double getObservedX() {
+		return state.observedX[index];
+	}
+
+	public double getObservedY() {
+		return state.observedY[index];
+	}
+
+	public double getObservedVx() {
+		return state.observedVx[index];
+	}
+
+	public double getObservedVy() {
+		return state.observedVy[index];
+	}
+
+	/**
+	 * Moves the agent by the given displacement. The model wraps the new
+	 * position around the toroidal world.
+	 *
+	 * @param dx
+	 *            displacement in x
+	 * @param dy
+	 *            displacement in y
+	 */
+	public void move(double dx, double dy) {
+		model.move(index, dx, dy);
 	}
 
 	/**
@@ -129,16 +202,10 @@ public class Agent implements Steppable {
 	 * the velocity. This could be usefull to simulate bumbing into a wall for
 	 * instance or toroidal worlds, handled only by the model which controlls
 	 * the space where agents interact.
-	 * 
-	 * @param position
-	 *            the current agent position
-	 * @param velocity
-	 *            the agent velocity to be applied to the position
 	 */
 	public void updatePosition() {
-		Double2D newPosition = model.updatePosition(this, getPosition(),
-				getVelocity());
-		this.position.setTo(newPosition);
+		move(state.vx[index] * model.velocityScalar, state.vy[index]
+				* model.velocityScalar);
 	}
 
 	/**
@@ -152,20 +219,48 @@ public class Agent implements Steppable {
 	}
 
 	public void updateFitness(double currVal, double currX, double currY) {
-		if (currVal > this.bestFitness) {
-			bestFitness = currVal;
-			bestFitnessP.setTo(currX, currY);
-
-			model.updateBest(currVal, currX, currY);
+		if (currVal > state.bestFitness[index]) {
+			state.bestFitness[index] = currVal;
+			state.bestX[index] = currX;
+			state.bestY[index] = currY;
 		}
 	}
 
 	public double getBestFitness() {
-		return bestFitness;
+		return state.bestFitness[index];
+	}
+
+	/**
+	 * Position of the agent at the beginning of the current step, this is
+	 * what neighbours should read. The model takes a snapshot of every agent
+	 * before any of them is stepped, so an agent reading a neighbour sees the
+	 * same state regardless of the order in which agents are scheduled.
+	 */
+	public Double2D getObservedPosition() {
+		return new Double2D(state.observedX[index], state.observedY[index]);
+	}
+
+	public Double2D getObservedVelocity() {
+		return new Double2D(state.observedVx[index], state.observedVy[index]);
+	}
+
+	public Double2D getObservedBestFitnessCoordinates() {
+		return new Double2D(state.observedBestX[index],
+				state.observedBestY[index]);
+	}
+
+	public double getObservedFitness() {
+		return state.observedFitness[index];
+	}
+
+	public double getObservedBestFitness() {
+		return state.observedBestFitness[index];
 	}
 
 	public double getDistanceToGlobalBest() {
-		return model.space.tds(new Double2D(position), new Double2D(
-				model.bestPosition));
+		GlobalBest best = model.getBest();
+		double dx = model.space.tdx(getX(), best.x);
+		double dy = model.space.tdy(getY(), best.y);
+		return dx * dx + dy * dy;
 	}
 }
@@ -0,0 +1,153 @@
+package mimetic.desire;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import mimetic.desire.landscape.Landscape;
+import sim.app.pso.Evaluatable;
+
+/**
+ * Kinematic state of all the agents in the model stored as primitive columns
+ * indexed by {@link Agent#index}. Agents read and write their own row in place,
+ * which avoids an object per coordinate pair and lets whole population
+ * computations run as plain loops over the arrays.
+ *
+ * The observed columns hold the state the agents expose to their neighbours
+ * during a step, see {@link #snapshot(Evaluatable)}.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class AgentState implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public final int size;
+
+	// current position
+	public final double[] x;
+	public final double[] y;
+
+	// current velocity
+	public final double[] vx;
+	public final double[] vy;
+
+	// fitness at the current position, only valid until the agent moves
+	public final double[] fitness;
+	public final boolean[] fitnessValid;
+
+	// best position found by each agent and its fitness
+	public final double[] bestX;
+	public final double[] bestY;
+	public final double[] bestFitness;
+
+	// state at the beginning of the current step
+	public final double[] observedX;
+	public final double[] observedY;
+	public final double[] observedVx;
+	public final double[] observedVy;
+	public final double[] observedBestX;
+	public final double[] observedBestY;
+	public final double[] observedBestFitness;
+	public final double[] observedFitness;
+
+	/**
+	 *
+	 * @param size
+	 *            number of agents
+	 */
+	public AgentState(int size) {
+		this.size = size;
+
+		x = new double[size];
+		y = new double[size];
+		vx = new double[size];
+		vy = new double[size];
+		fitness = new double[size];
+		fitnessValid = new boolean[size];
+		bestX = new double[size];
+		bestY = new double[size];
+		bestFitness = new double[size];
+
+		observedX = new double[size];
+		observedY = new double[size];
+		observedVx = new double[size];
+		observedVy = new double[size];
+		observedBestX = new double[size];
+		observedBestY = new double[size];
+		observedBestFitness = new double[size];
+		observedFitness = new double[size];
+	}
+
+	/**
+	 * Returns the fitness of an agent at its current position. The value is
+	 * computed once and reused until the agent moves.
+	 *
+	 * @param i
+	 *            the agent index
+	 * @param f
+	 *            the fitness landscape
+	 */
+	public double fitness(int i, Evaluatable f) {
+		if (!fitnessValid[i]) {
+			fitness[i] = f.calcFitness(x[i], y[i]);
+			fitnessValid[i] = true;
+		}
+		return fitness[i];
+	}
+
+	/**
+	 * Computes the fitness of every agent at its current position with a
+	 * single batch call to the landscape.
+	 *
+	 * @param f
+	 *            the fitness landscape
+	 */
+	public void evaluate(Landscape f) {
+		f.calcFitness(x, y, fitness, size);
+		Arrays.fill(fitnessValid, true);
+	}
+
+	/**
+	 * Sets the position of an agent, invalidating its cached fitness.
+	 */
+	public void moveTo(int i, double newX, double newY) {
+		x[i] = newX;
+		y[i] = newY;
+		fitnessValid[i] = false;
+	}
+
+	/**
+	 * Copies the current state of every agent to the observed columns.
+	 *
+	 * @param f
+	 *            the fitness landscape used to compute the observed fitness
+	 */
+	public void snapshot(Evaluatable f) {
+		System.arraycopy(x, 0, observedX, 0, size);
+		System.arraycopy(y, 0, observedY, 0, size);
+		System.arraycopy(vx, 0, observedVx, 0, size);
+		System.arraycopy(vy, 0, observedVy, 0, size);
+		System.arraycopy(bestX, 0, observedBestX, 0, size);
+		System.arraycopy(bestY, 0, observedBestY, 0, size);
+		System.arraycopy(bestFitness, 0, observedBestFitness, 0, size);
+
+		for (int i = 0; i < size; i++) {
+			observedFitness[i] = fitness(i, f);
+		}
+	}
+
+	/**
+	 * Copies the observed state of a single agent, used when an agent is
+	 * created so that its neighbours can see it before the first step.
+	 */
+	void snapshot(int i, double fitness) {
+		observedX[i] = x[i];
+		observedY[i] = y[i];
+		observedVx[i] = vx[i];
+		observedVy[i] = vy[i];
+		observedBestX[i] = bestX[i];
+		observedBestY[i] = bestY[i];
+		observedBestFitness[i] = bestFitness[i];
+		observedFitness[i] = fitness;
+	}
+}
@@ -0,0 +1,68 @@
+package mimetic.desire;
+
+import java.io.Serializable;
+
+/**
+ * Best position found so far by any agent of the model. Instances are
+ * immutable, the model publishes a new one when the best improves so agents
+ * running on other threads always read a fitness and a position that belong
+ * together.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public final class GlobalBest implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public final double fitness;
+	public final double x;
+	public final double y;
+
+	// index of the agent that found this position, -1 if none did
+	public final int agent;
+
+	/**
+	 * 
+	 * @param fitness
+	 *            fitness at the best position
+	 * @param x
+	 *            coordinate
+	 * @param y
+	 *            coordinate
+	 * @param agent
+	 *            index of the agent that found the position
+	 */
+	public GlobalBest(double fitness, double x, double y, int agent) {
+		this.fitness = fitness;
+		this.x = x;
+		this.y = y;
+		this.agent = agent;
+	}
+
+	/**
+	 * Returns the best of the personal bests in the given state and this
+	 * record. Ties are resolved in favour of this record and then of the agent
+	 * with the lowest index, which is what updating the best agent by agent in
+	 * index order would give.
+	 * 
+	 * @param state
+	 *            the agent state with the personal bests
+	 */
+	public GlobalBest merge(AgentState state) {
+		double[] bestFitness = state.bestFitness;
+
+		int best = -1;
+		double bestValue = fitness;
+		for (int i = 0; i < state.size; i++) {
+			if (bestFitness[i] > bestValue) {
+				bestValue = bestFitness[i];
+				best = i;
+			}
+		}
+
+		if (best < 0)
+			return this;
+		return new GlobalBest(bestValue, state.bestX[best], state.bestY[best],
+				best);
+	}
+}
@@ -1,16 +1,31 @@
 package mimetic.desire;
 
-import sim.app.pso.Booth;
-import sim.app.pso.Evaluatable;
-import sim.app.pso.Griewangk;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import mimetic.desire.behaviour.ecj.AsyncBreeder;
+import mimetic.desire.behaviour.ecj.SharedEvolution;
+import mimetic.desire.landscape.BoothLandscape;
+import mimetic.desire.landscape.GriewangkLandscape;
+import mimetic.desire.landscape.Landscape;
+import mimetic.desire.landscape.RastriginLandscape;
+import mimetic.desire.landscape.RosenbrockLandscape;
+import mimetic.desire.topology.Neighbourhood;
+import mimetic.desire.topology.RandomRegularTopology;
+import mimetic.desire.topology.RingTopology;
+import mimetic.desire.topology.SmallWorldTopology;
+import mimetic.desire.topology.SpatialIndex;
+import mimetic.desire.topology.Topology;
+import mimetic.desire.topology.VonNeumannTopology;
 import sim.app.pso.Particle;
-import sim.app.pso.Rastrigin;
-import sim.app.pso.Rosenbrock;
 import sim.engine.Schedule;
 import sim.engine.SimState;
+import sim.engine.Steppable;
 import sim.field.continuous.Continuous2D;
 import sim.util.Double2D;
 import sim.util.MutableDouble2D;
+import ec.util.MersenneTwisterFast;
 
 /**
  * Model of mimetic desire in which we try to test out the implications of
@@ -58,6 +73,9 @@ public class MimeticDesire extends SimState {
 
 	public Agent[] agents;
 
+	// primitive columns with the kinematic state of every agent
+	public AgentState agentState;
+
 	// parameters
 	public int numAgents = 1;
 
@@ -81,6 +99,74 @@ public class MimeticDesire extends SimState {
 			neighborhoodSize = val;
 	}
 
+	public int topology = 0;
+
+	public int getTopology() {
+		return topology;
+	}
+
+	public void setTopology(int val) {
+		topology = val;
+	}
+
+	public Object domTopology() {
+		return new String[] { "Ring", "Von Neumann", "Small World",
+				"Random Regular", "Spatial Radius", "Spatial Nearest" };
+	}
+
+	// spatial neighbourhoods change as the agents move
+	public static final int SPATIAL_RADIUS = 4;
+	public static final int SPATIAL_NEAREST = 5;
+
+	private boolean isSpatialTopology() {
+		return topology == SPATIAL_RADIUS || topology == SPATIAL_NEAREST;
+	}
+
+	private Topology mapTopology(int val) {
+		switch (val) {
+		case 0:
+			return new RingTopology();
+		case 1:
+			return new VonNeumannTopology();
+		case 2:
+			return new SmallWorldTopology(rewiringProbability);
+		case 3:
+			return new RandomRegularTopology();
+		}
+
+		return new RingTopology();
+	}
+
+	// used by the small world topology
+	public double rewiringProbability = 0.1;
+
+	public double getRewiringProbability() {
+		return rewiringProbability;
+	}
+
+	public void setRewiringProbability(double val) {
+		if (val >= 0.0 && val <= 1.0)
+			rewiringProbability = val;
+	}
+
+	// used by the spatial radius topology, the nearest topology uses the
+	// neighbourhood size as the number of neighbours
+	public double neighbourhoodRadius = 2.0;
+
+	public double getNeighbourhoodRadius() {
+		return neighbourhoodRadius;
+	}
+
+	public void setNeighbourhoodRadius(double val) {
+		if (val > 0.0)
+			neighbourhoodRadius = val;
+	}
+
+	// neighbours of every agent, built when the model starts
+	public Neighbourhood neighbourhood;
+
+	private SpatialIndex spatialIndex;
+
 	public double initialVelocityRange = 1.0;
 
 	public double velocityScalar = 0.5;
@@ -108,25 +194,226 @@ public class MimeticDesire extends SimState {
 		return new String[] { "Booth", "Rastrigin", "Griewangk", "Rosenbrock" };
 	}
 
-	private Evaluatable mapFitnessFunction(int val) {
+	// run the agent CGP programs compiled into primitive programs instead of
+	// the boxed CGP interpreter
+	public boolean compiledControllers = false;
+
+	public boolean getCompiledControllers() {
+		return compiledControllers;
+	}
+
+	public void setCompiledControllers(boolean val) {
+		compiledControllers = val;
+	}
+
+	// compiled programs that run this many times are generated as classes so
+	// the JIT can compile them, 0 disables the generation
+	public int hotProgramThreshold = 0;
+
+	public int getHotProgramThreshold() {
+		return hotProgramThreshold;
+	}
+
+	public void setHotProgramThreshold(int val) {
+		if (val >= 0)
+			hotProgramThreshold = val;
+	}
+
+	// steps the agents keep their last controller while the next generation
+	// is bred in the background, 0 breeds synchronously and -1 swaps the new
+	// generation as soon as it is ready (not reproducible), see AsyncBreeder
+	public int breedingLag = 0;
+
+	public int getBreedingLag() {
+		return breedingLag;
+	}
+
+	public void setBreedingLag(int val) {
+		if (val >= AsyncBreeder.WHEN_READY)
+			breedingLag = val;
+	}
+
+	// replace each controller by a single child as soon as it is used up
+	// instead of breeding whole generations, see SteadyStateBreeder
+	public boolean steadyState = false;
+
+	public boolean getSteadyState() {
+		return steadyState;
+	}
+
+	public void setSteadyState(boolean val) {
+		steadyState = val;
+	}
+
+	// drop controllers whose score can't reach the best controller of their
+	// generation before their utility or energy runs out, see Racing
+	public boolean racing = false;
+
+	public boolean getRacing() {
+		return racing;
+	}
+
+	public void setRacing(boolean val) {
+		racing = val;
+	}
+
+	// fraction of each new generation of controllers that runs in the
+	// simulation, the others are scored by a surrogate model fitted to the
+	// controllers that ran, 1 runs every controller, see Surrogate
+	public double surrogateFraction = 1;
+
+	public double getSurrogateFraction() {
+		return surrogateFraction;
+	}
+
+	public void setSurrogateFraction(double val) {
+		if (val > 0 && val <= 1)
+			surrogateFraction = val;
+	}
+
+	// steps each controller is simulated from a fork of its agent state to
+	// score a whole generation in parallel, the agent then runs the best
+	// controller for one maturation period, 0 runs the controllers one after
+	// another in the simulation, see LookAhead
+	public int lookAheadHorizon = 0;
+
+	public int getLookAheadHorizon() {
+		return lookAheadHorizon;
+	}
+
+	public void setLookAheadHorizon(int val) {
+		if (val >= 0)
+			lookAheadHorizon = val;
+	}
+
+	// the controller populations of all the agents are demes of one
+	// evolutionary state per parameter file instead of one state per agent,
+	// see SharedEvolution
+	public boolean sharedEvolution = false;
+
+	public boolean getSharedEvolution() {
+		return sharedEvolution;
+	}
+
+	public void setSharedEvolution(boolean val) {
+		sharedEvolution = val;
+	}
+
+	// shared evolutionary states of the current run by parameter file
+	private transient Map<String, SharedEvolution> evolutionEngines;
+
+	/**
+	 * Returns the evolutionary state shared by the agents that evolve with a
+	 * parameter file, it is created the first time it is requested in a run.
+	 *
+	 * @param filename
+	 *            the parameter file name in the classpath
+	 */
+	public synchronized SharedEvolution getEvolutionEngine(String filename) {
+		if (evolutionEngines == null)
+			evolutionEngines = new HashMap<>();
+		SharedEvolution engine = evolutionEngines.get(filename);
+		if (engine == null) {
+			engine = new SharedEvolution(filename, parameterOverrides);
+			evolutionEngines.put(filename, engine);
+		}
+		return engine;
+	}
+
+	// ECJ parameters that replace the ones in the behaviour parameter files,
+	// lets parameter sweeps change the evolutionary setup without new files
+	public Map<String, String> parameterOverrides = new HashMap<>();
+
+	public Map<String, String> getParameterOverrides() {
+		return parameterOverrides;
+	}
+
+	public void setParameterOverrides(Map<String, String> val) {
+		parameterOverrides = val;
+	}
+
+	// fitness landscape of the current run, set when the model starts
+	public Landscape landscape;
+
+	private Landscape mapFitnessFunction(int val) {
 		switch (val) {
 		case 0:
-			return new Booth();
+			return new BoothLandscape();
 		case 1:
-			return new Rastrigin();
+			return new RastriginLandscape();
 		case 2:
-			return new Griewangk();
+			return new GriewangkLandscape();
 		case 3:
-			return new Rosenbrock();
+			return new RosenbrockLandscape();
 		}
 
-		return new Booth();
+		return new BoothLandscape();
+	}
+
+	// steps the agents concurrently on a fork join pool. Agents always draw
+	// from their own random streams and read each other from the snapshot
+	// taken at ordering 0, in both modes, so a run gives the same result with
+	// or without parallel stepping, but a fixed seed does not reproduce the
+	// runs of versions where agents shared the model random stream
+	public boolean parallelStepping = false;
+
+	public boolean getParallelStepping() {
+		return parallelStepping;
+	}
+
+	public void setParallelStepping(boolean val) {
+		parallelStepping = val;
+	}
+
+	// number of worker threads used when stepping the agents in parallel
+	public int parallelism = Runtime.getRuntime().availableProcessors();
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int val) {
+		if (val > 0)
+			parallelism = val;
+	}
+
+	// agents stepped by a single task before it stops splitting the work
+	public int parallelChunkSize = 8;
+
+	public int getParallelChunkSize() {
+		return parallelChunkSize;
+	}
+
+	public void setParallelChunkSize(int val) {
+		if (val > 0)
+			parallelChunkSize = val;
+	}
+
+	private transient ForkJoinPool stepperPool;
+
+	// keeps the continuous space (used by the portrayals) in sync with the
+	// agent positions, headless runs can turn this off
+	public boolean updateSpace = true;
+
+	public boolean getUpdateSpace() {
+		return updateSpace;
+	}
+
+	public void setUpdateSpace(boolean val) {
+		updateSpace = val;
 	}
 
 	public double[] fitnessFunctionLowerBound = { 920, 950, 998, 200 };
 
 	public double successThreshold = 1.0e-8;
 
+	// step in which every agent reached the success threshold, -1 until then
+	public long successStep = -1;
+
+	public long getSuccessStep() {
+		return successStep;
+	}
+
 	public double getSuccessThreshold() {
 		return successThreshold;
 	}
@@ -146,44 +433,94 @@ public class MimeticDesire extends SimState {
 	 * based on the current neighbourhood distance but not on the topological
 	 * distance. but rather a regular neighbourhood established when the model
 	 * is first set up.
+	 * 
+	 * This copies the neighbours into a new array, agents stepping should use
+	 * {@link #getNeighbourCount(int)} and {@link #getNeighbour(int, int)}.
 	 */
 	public Agent[] getNeighobours(int agentIndex) {
 
-		Agent[] neighbours = new Agent[neighborhoodSize];
+		Agent[] neighbours = new Agent[neighbourhood.size(agentIndex)];
 
-		int start = (agentIndex - neighborhoodSize / 2);
-		if (start < 0)
-			start += numAgents;
-
-		for (int i = 0; i < neighborhoodSize; i++) {
-			neighbours[i] = agents[(start + i) % numAgents];
+		for (int i = 0; i < neighbours.length; i++) {
+			neighbours[i] = agents[neighbourhood.get(agentIndex, i)];
 
 		}
 		return neighbours;
 	}
 
+	public int getNeighbourCount(int agentIndex) {
+		return neighbourhood.size(agentIndex);
+	}
+
+	/**
+	 * @return the k-th neighbour of the given agent
+	 */
+	public Agent getNeighbour(int agentIndex, int k) {
+		return agents[neighbourhood.get(agentIndex, k)];
+	}
+
+	public Agent getRandomNeighbour(int agentIndex, MersenneTwisterFast random) {
+		return getNeighbour(agentIndex,
+				random.nextInt(neighbourhood.size(agentIndex)));
+	}
+
 	int prevSuccessCount = -1;
 
-	public double bestVal;
+	// best position found by the agents, replaced (never modified) when it
+	// improves so it can be read while the agents are stepped concurrently
+	private volatile GlobalBest best = new GlobalBest(0, 0, 0, -1);
+
+	public GlobalBest getBest() {
+		return best;
+	}
 
-	public MutableDouble2D bestPosition = new MutableDouble2D();
+	public double getBestVal() {
+		return best.fitness;
+	}
 
 	public void start() {
 		// reset the global best
-		// bestVal = 0;
+		best = new GlobalBest(0, 0, 0, -1);
+		successStep = -1;
 
 		super.start();
 
 		if (agents != null)
 			cleanAgents();
+		shutdownStepperPool();
+		cleanEvolutionEngines();
+
+		// steady-state replacement breeds inside the population of an agent
+		if (sharedEvolution && steadyState)
+			throw new RuntimeException(
+					"Steady-state replacement needs one evolutionary state per agent");
 
 		height = size;
 		width = size;
 		
 		agents = new Agent[numAgents];
-		space = new Continuous2D(height, width, height);
+		agentState = new AgentState(numAgents);
+
+		// the discretization of the space should match the interaction
+		// distance, otherwise every agent falls in the same bucket
+		double cellSize = topology == SPATIAL_NEAREST ? SpatialIndex
+				.cellSizeForNearest(width, height, numAgents,
+						neighborhoodSize) : neighbourhoodRadius;
+		space = new Continuous2D(cellSize, width, height);
+
+		if (isSpatialTopology()) {
+			spatialIndex = new SpatialIndex(width, height, cellSize,
+					numAgents);
+			neighbourhood = new Neighbourhood(new int[numAgents + 1],
+					new int[numAgents * Math.max(neighborhoodSize, 1)]);
+		} else {
+			spatialIndex = null;
+			neighbourhood = mapTopology(topology).build(numAgents,
+					neighborhoodSize, random);
+		}
 
-		Evaluatable f = mapFitnessFunction(fitnessFunction);
+		landscape = mapFitnessFunction(fitnessFunction);
+		final Landscape f = landscape;
 
 		for (int i = 0; i < numAgents; i++) {
 			double x = (random.nextDouble() * width) - (width * 0.5);
@@ -197,70 +534,132 @@ public class MimeticDesire extends SimState {
 
 			agents[i] = a;
 
-			schedule.scheduleRepeating(Schedule.EPOCH, 1, a);
+			if (!parallelStepping)
+				schedule.scheduleRepeating(Schedule.EPOCH, 1, a);
 		}
 
-		// schedule the current evaluation (stop condition etc)
+		if (spatialIndex != null)
+			updateSpatialNeighbourhood();
+
+		// what the agents see of each other is fixed before any of them moves
+		schedule.scheduleRepeating(Schedule.EPOCH, 0, new Steppable() {
+			private static final long serialVersionUID = 1L;
 
-		schedule.scheduleRepeating(Schedule.EPOCH, 2, new StoppingCondition(
-				successThreshold));
+			@Override
+			public void step(SimState state) {
+				agentState.snapshot(f);
+				if (spatialIndex != null)
+					updateSpatialNeighbourhood();
+			}
+		});
+
+		if (parallelStepping) {
+			stepperPool = new ForkJoinPool(parallelism);
+			schedule.scheduleRepeating(Schedule.EPOCH, 1,
+					new ParallelAgentStepper(stepperPool, parallelChunkSize));
+		}
+
+		// agents move in place, once all of them moved their fitness is
+		// computed in a single batch, the space is updated and the current
+		// evaluation (stop condition etc) runs on the evaluated agents
+		final StoppingCondition stoppingCondition = new StoppingCondition(
+				successThreshold);
+		schedule.scheduleRepeating(Schedule.EPOCH, 2, new Steppable() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void step(SimState state) {
+				evaluateAgents();
+				if (updateSpace)
+					updateSpace();
+				stoppingCondition.step(state);
+			}
+		});
 	}
 
 	/**
-	 * Establishes the behaviour of the agent based on the position it is
-	 * requested to be set.
+	 * Moves an agent by the given displacement in place. The world is
+	 * toroidal, positions that fall outside of it are wrapped around.
 	 * 
-	 * We could use this to setup a toroidal world position update or for
-	 * instance to simulate the behaviour or bumping against a wall and reducing
-	 * the agent current velocity in that direction.
+	 * Bumping into a wall or reducing the agent velocity in time (some kind
+	 * of "resistance") would be handled here.
 	 * 
-	 * @param agent
-	 * @param position
+	 * @param agentIndex
+	 *            the index of the agent to move
+	 * @param dx
+	 *            displacement in x
+	 * @param dy
+	 *            displacement in y
 	 */
-	public Double2D updatePosition(Agent agent, Double2D position,
-			Double2D velocity) {
+	public void move(int agentIndex, double dx, double dy) {
+		double halfWidth = width * 0.5;
+		double halfHeight = height * 0.5;
 
-		double desiredx = position.x + velocity.x * velocityScalar;
-		double desiredy = position.y + velocity.y * velocityScalar;
-		// System.out.println("desired -> (" + desiredx + "," + desiredy + ")");
+		double x = space.stx(agentState.x[agentIndex] + dx + halfWidth)
+				- halfWidth;
+		double y = space.sty(agentState.y[agentIndex] + dy + halfHeight)
+				- halfHeight;
 
-		// toroidal world!
-		double x = space.stx(desiredx + width * 0.5) - (width * 0.5);
-
-		// (((desiredx - 0.5*width) + width) % width) - (width * 0.5);
-		double y = space.sty(desiredy + height * 0.5) - (height * 0.5);
-		// (((desiredy - 0.5*width) + height)% height) - (height * 0.5);
+		// the cached fitness of the agent is no longer valid
+		agentState.moveTo(agentIndex, x, y);
+	}
 
-		// System.out.println("new position -> (" + x + "," + y + ")");
+	/**
+	 * Recomputes the spatial neighbourhoods from the observed positions, this
+	 * is done once per step before the agents move.
+	 */
+	private void updateSpatialNeighbourhood() {
+		spatialIndex.rebuild(agentState.observedX, agentState.observedY);
+
+		if (topology == SPATIAL_RADIUS)
+			spatialIndex.withinRadius(agentState.observedX,
+					agentState.observedY, neighbourhoodRadius, neighbourhood);
+		else
+			spatialIndex.nearest(agentState.observedX, agentState.observedY,
+					neighborhoodSize, neighbourhood);
+	}
 
-		Double2D newPosition = new Double2D(x, y);
-		this.space.setObjectLocation(agent, newPosition);
-		// bumping into something could reduce this velocity for instance
-		// the velocity could also be reduced in time by some kind of
-		// "resistance"
-		agent.setVelocity(velocity);
-		return newPosition;
+	/**
+	 * Computes the fitness of every agent at its new position with one batch
+	 * call to the landscape and updates the best positions found by the
+	 * agents. The global best is then merged from the personal bests and
+	 * published once, agents never write to it while they are stepped.
+	 */
+	void evaluateAgents() {
+		agentState.evaluate(landscape);
+
+		double[] fitness = agentState.fitness;
+		double[] x = agentState.x;
+		double[] y = agentState.y;
+		for (int i = 0; i < agents.length; i++) {
+			agents[i].updateFitness(fitness[i], x[i], y[i]);
+		}
 
+		best = best.merge(agentState);
 	}
 
-	public void updateBest(double currVal, double currX, double currY) {
-		if (currVal > bestVal) {
-			bestVal = currVal;
-			bestPosition.setTo(currX, currY);
+	/**
+	 * Writes the current position of every agent to the continuous space.
+	 */
+	void updateSpace() {
+		for (int i = 0; i < agents.length; i++) {
+			space.setObjectLocation(agents[i], new Double2D(agentState.x[i],
+					agentState.y[i]));
 		}
 	}
 
 	public double getNeighborhoodBest(int agentIndex, MutableDouble2D pos) {
 		double bv = Double.NEGATIVE_INFINITY;
-		Agent a;
-
-		Agent[] neighbours = getNeighobours(agentIndex);
 
-		for (Agent neighbour : neighbours) {
+		int[] neighbours = neighbourhood.neighbours;
+		int end = neighbourhood.offsets[agentIndex + 1];
 
-			if (neighbour.bestFitness > bv) {
-				bv = neighbour.bestFitness;
-				pos.setTo(neighbour.bestPosition);
+		for (int i = neighbourhood.offsets[agentIndex]; i < end; i++) {
+			int n = neighbours[i];
+			if (agentState.observedBestFitness[n] > bv) {
+				bv = agentState.observedBestFitness[n];
+				pos.setTo(agentState.observedBestX[n],
+						agentState.observedBestY[n]);
 			}
 		}
 
@@ -268,13 +667,23 @@ public class MimeticDesire extends SimState {
 	}
 
 	public Agent getBestNeighbour(int agentIndex) {
+		return getBestNeighbour(agentIndex, random);
+	}
 
-		Agent[] neighbours = getNeighobours(agentIndex);
-		Agent best = neighbours[random.nextInt(neighbours.length)];
+	/**
+	 * Returns the neighbour with the best fitness, ties are broken by a random
+	 * starting neighbour drawn from the given random stream (usually the one
+	 * owned by the agent asking).
+	 */
+	public Agent getBestNeighbour(int agentIndex, MersenneTwisterFast random) {
 
-		for (Agent neighbour : neighbours) {
+		Agent best = getRandomNeighbour(agentIndex, random);
 
-			if (neighbour.bestFitness > best.getFitness()) {
+		int end = neighbourhood.offsets[agentIndex + 1];
+		for (int i = neighbourhood.offsets[agentIndex]; i < end; i++) {
+			Agent neighbour = agents[neighbourhood.neighbours[i]];
+
+			if (neighbour.getObservedBestFitness() > best.getObservedFitness()) {
 				best = neighbour;
 
 			}
@@ -286,7 +695,16 @@ public class MimeticDesire extends SimState {
 	@Override
 	public void finish() {
 		super.finish();
+		shutdownStepperPool();
+		cleanEvolutionEngines();
+	}
 
+	private synchronized void cleanEvolutionEngines() {
+		if (evolutionEngines == null)
+			return;
+		for (SharedEvolution engine : evolutionEngines.values())
+			engine.cleanup();
+		evolutionEngines.clear();
 	}
 
 	private void cleanAgents() {
@@ -295,8 +713,30 @@ public class MimeticDesire extends SimState {
 		}
 	}
 
+	private void shutdownStepperPool() {
+		if (stepperPool != null) {
+			stepperPool.shutdown();
+			stepperPool = null;
+		}
+	}
+
+	/**
+	 * Mean squared toroidal distance from the agents to the global best, see
+	 * {@link Agent#getDistanceToGlobalBest()}.
+	 */
+	public double getMeanDistanceToBest() {
+		if (agents == null || agents.length == 0)
+			return 0;
+
+		double sum = 0;
+		for (Agent a : agents)
+			sum += a.getDistanceToGlobalBest();
+		return sum / agents.length;
+	}
+
 	public Double2D getBestPosition() {
-		return new Double2D(bestPosition);
+		GlobalBest b = best;
+		return new Double2D(b.x, b.y);
 	}
 
 }
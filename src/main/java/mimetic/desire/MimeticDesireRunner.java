@@ -0,0 +1,215 @@
+package mimetic.desire;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Runs the {@link MimeticDesire} model without a GUI. The schedule is stepped
+ * in a loop until the agents succeed or the maximum number of steps is
+ * reached, the continuous space is not updated since nothing portrays it.
+ *
+ * Parameters are given as <code>-key value</code> pairs or read from a
+ * properties file with <code>-file path</code>, command line values override
+ * the ones in the file:
+ *
+ * <pre>
+ * numAgents, neighborhoodSize, fitnessFunction, velocityScalar,
+ * successThreshold, seed, maxSteps, compiledControllers,
+ * hotProgramThreshold, breedingLag, steadyState, racing,
+ * surrogateFraction, lookAheadHorizon, sharedEvolution
+ * </pre>
+ *
+ * Parameters prefixed with <code>ecj.</code> override the ECJ parameters of
+ * the agent behaviours, e.g. <code>-ecj.pop.subpop.0.size 50</code>.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class MimeticDesireRunner {
+
+	public static final String FILE = "file";
+	public static final String NUM_AGENTS = "numAgents";
+	public static final String NEIGHBORHOOD_SIZE = "neighborhoodSize";
+	public static final String FITNESS_FUNCTION = "fitnessFunction";
+	public static final String VELOCITY_SCALAR = "velocityScalar";
+	public static final String SUCCESS_THRESHOLD = "successThreshold";
+	public static final String SEED = "seed";
+	public static final String MAX_STEPS = "maxSteps";
+	public static final String COMPILED_CONTROLLERS = "compiledControllers";
+	public static final String HOT_PROGRAM_THRESHOLD = "hotProgramThreshold";
+	public static final String BREEDING_LAG = "breedingLag";
+	public static final String STEADY_STATE = "steadyState";
+	public static final String RACING = "racing";
+	public static final String SURROGATE_FRACTION = "surrogateFraction";
+	public static final String LOOK_AHEAD_HORIZON = "lookAheadHorizon";
+	public static final String SHARED_EVOLUTION = "sharedEvolution";
+	public static final String ECJ_PREFIX = "ecj.";
+
+	public static final long DEFAULT_MAX_STEPS = 10000;
+
+	private final MimeticDesire model;
+	private final long maxSteps;
+
+	private long steps;
+	private long elapsedNanos;
+
+	/**
+	 *
+	 * @param model
+	 *            the model to run, parameters should already be set
+	 * @param maxSteps
+	 *            maximum number of steps to run
+	 */
+	public MimeticDesireRunner(MimeticDesire model, long maxSteps) {
+		this.model = model;
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Creates a model from the given parameters, parameters that are not
+	 * present keep the model defaults.
+	 *
+	 * @param params
+	 *            model parameters
+	 */
+	public static MimeticDesire createModel(Properties params) {
+		long seed = params.containsKey(SEED) ? Long.parseLong(params
+				.getProperty(SEED)) : System.currentTimeMillis();
+
+		MimeticDesire model = new MimeticDesire(seed);
+		model.setUpdateSpace(false);
+
+		// the neighbourhood size is validated against the number of agents
+		if (params.containsKey(NUM_AGENTS))
+			model.setNumAgents(Integer.parseInt(params.getProperty(NUM_AGENTS)));
+		if (params.containsKey(NEIGHBORHOOD_SIZE))
+			model.setNeighborhoodSize(Integer.parseInt(params
+					.getProperty(NEIGHBORHOOD_SIZE)));
+		if (params.containsKey(FITNESS_FUNCTION))
+			model.setFitnessFunction(Integer.parseInt(params
+					.getProperty(FITNESS_FUNCTION)));
+		if (params.containsKey(VELOCITY_SCALAR))
+			model.setVelocityScalar(Double.parseDouble(params
+					.getProperty(VELOCITY_SCALAR)));
+		if (params.containsKey(SUCCESS_THRESHOLD))
+			model.setSuccessThreshold(Double.parseDouble(params
+					.getProperty(SUCCESS_THRESHOLD)));
+		if (params.containsKey(COMPILED_CONTROLLERS))
+			model.setCompiledControllers(Boolean.parseBoolean(params
+					.getProperty(COMPILED_CONTROLLERS)));
+		if (params.containsKey(HOT_PROGRAM_THRESHOLD))
+			model.setHotProgramThreshold(Integer.parseInt(params
+					.getProperty(HOT_PROGRAM_THRESHOLD)));
+		if (params.containsKey(BREEDING_LAG))
+			model.setBreedingLag(Integer.parseInt(params
+					.getProperty(BREEDING_LAG)));
+		if (params.containsKey(STEADY_STATE))
+			model.setSteadyState(Boolean.parseBoolean(params
+					.getProperty(STEADY_STATE)));
+		if (params.containsKey(RACING))
+			model.setRacing(Boolean.parseBoolean(params.getProperty(RACING)));
+		if (params.containsKey(SURROGATE_FRACTION))
+			model.setSurrogateFraction(Double.parseDouble(params
+					.getProperty(SURROGATE_FRACTION)));
+		if (params.containsKey(LOOK_AHEAD_HORIZON))
+			model.setLookAheadHorizon(Integer.parseInt(params
+					.getProperty(LOOK_AHEAD_HORIZON)));
+		if (params.containsKey(SHARED_EVOLUTION))
+			model.setSharedEvolution(Boolean.parseBoolean(params
+					.getProperty(SHARED_EVOLUTION)));
+
+		for (String key : params.stringPropertyNames()) {
+			if (key.startsWith(ECJ_PREFIX))
+				model.parameterOverrides.put(
+						key.substring(ECJ_PREFIX.length()),
+						params.getProperty(key));
+		}
+
+		return model;
+	}
+
+	/**
+	 * Parses <code>-key value</code> pairs, if a <code>-file</code> is given
+	 * its properties are loaded first.
+	 *
+	 * @param args
+	 *            command line arguments
+	 */
+	public static Properties parseArgs(String[] args) throws IOException {
+		Properties cmd = new Properties();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("-") || i + 1 >= args.length)
+				throw new RuntimeException("Expected -key value, found: "
+						+ args[i]);
+			cmd.setProperty(args[i].substring(1), args[++i]);
+		}
+
+		Properties params = new Properties();
+		if (cmd.containsKey(FILE)) {
+			InputStream in = new FileInputStream(cmd.getProperty(FILE));
+			try {
+				params.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		params.putAll(cmd);
+
+		return params;
+	}
+
+	/**
+	 * Starts the model and steps it until it is killed by the
+	 * {@link StoppingCondition} or maxSteps are executed.
+	 */
+	public void run() {
+		model.start();
+
+		steps = 0;
+		long start = System.nanoTime();
+		while (steps < maxSteps && model.schedule.step(model))
+			steps++;
+		elapsedNanos = System.nanoTime() - start;
+
+		model.finish();
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public double getElapsedSeconds() {
+		return elapsedNanos / 1.0e9;
+	}
+
+	public double getStepsPerSecond() {
+		return elapsedNanos == 0 ? 0 : steps / getElapsedSeconds();
+	}
+
+	public boolean isSuccess() {
+		return model.successStep >= 0;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Properties params = parseArgs(args);
+		long maxSteps = params.containsKey(MAX_STEPS) ? Long.parseLong(params
+				.getProperty(MAX_STEPS)) : DEFAULT_MAX_STEPS;
+
+		MimeticDesire model = createModel(params);
+		MimeticDesireRunner runner = new MimeticDesireRunner(model, maxSteps);
+		runner.run();
+
+		System.out.println("seed: " + model.seed());
+		System.out.println("steps: " + runner.getSteps());
+		System.out.println("elapsed (s): " + runner.getElapsedSeconds());
+		System.out.println("steps/s: " + runner.getStepsPerSecond());
+		if (runner.isSuccess())
+			System.out.println("time to success (s): "
+					+ runner.getElapsedSeconds() + " (step "
+					+ model.successStep + ")");
+		else
+			System.out.println("time to success: not reached");
+	}
+}
@@ -0,0 +1,76 @@
+package mimetic.desire;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+ * Steps all the agents of a {@link MimeticDesire} model on a fork join pool.
+ * The agent array is split recursively into chunks that idle workers can
+ * steal, the step only returns when every agent was stepped so anything
+ * scheduled after it (the {@link StoppingCondition}) sees a consistent model.
+ *
+ * Agents draw from their own random streams and read their neighbours from
+ * the snapshot taken at the beginning of the step, so the result does not
+ * depend on how the chunks are distributed among the workers.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class ParallelAgentStepper implements Steppable {
+	private static final long serialVersionUID = 1L;
+
+	private final transient ForkJoinPool pool;
+	private final int chunkSize;
+
+	/**
+	 *
+	 * @param pool
+	 *            the pool used to step the agents
+	 * @param chunkSize
+	 *            maximum number of agents stepped by a single task
+	 */
+	public ParallelAgentStepper(ForkJoinPool pool, int chunkSize) {
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public void step(SimState state) {
+		MimeticDesire model = (MimeticDesire) state;
+		Agent[] agents = model.agents;
+
+		pool.invoke(new StepAgents(agents, state, 0, agents.length));
+	}
+
+	private class StepAgents extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Agent[] agents;
+		private final SimState state;
+		private final int from;
+		private final int to;
+
+		StepAgents(Agent[] agents, SimState state, int from, int to) {
+			this.agents = agents;
+			this.state = state;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= chunkSize) {
+				for (int i = from; i < to; i++) {
+					agents[i].step(state);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new StepAgents(agents, state, from, middle),
+						new StepAgents(agents, state, middle, to));
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package mimetic.desire;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import mimetic.desire.util.P2Quantile;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Runs independent replicas of the {@link MimeticDesire} model concurrently on
+ * a fixed thread pool. Each replica is a separate model with its own seed,
+ * drawn from a master {@link MersenneTwisterFast} so a set of replicas can be
+ * reproduced from a single seed.
+ *
+ * The summary of each replica is added to a {@link ReplicaStatistics} as soon
+ * as the replica finishes, the models themselves are discarded.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class ReplicaExecutor {
+	public static final String REPLICAS = "replicas";
+	public static final String THREADS = "threads";
+
+	private final int threads;
+
+	/**
+	 *
+	 * @param threads
+	 *            maximum number of replicas running at the same time
+	 */
+	public ReplicaExecutor(int threads) {
+		if (threads < 1)
+			throw new RuntimeException("At least one thread is needed");
+		this.threads = threads;
+	}
+
+	/**
+	 * Runs a replica for each seed.
+	 *
+	 * @param params
+	 *            model parameters, see {@link MimeticDesireRunner}, the seed
+	 *            is ignored
+	 * @param seeds
+	 *            one seed per replica
+	 * @param maxSteps
+	 *            maximum number of steps of each replica
+	 * @return the aggregated statistics of all the replicas
+	 */
+	public ReplicaStatistics run(final Properties params, long[] seeds,
+			final long maxSteps) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CompletionService<ReplicaSummary> replicas = new ExecutorCompletionService<>(
+				pool);
+
+		try {
+			for (final long seed : seeds) {
+				replicas.submit(new Callable<ReplicaSummary>() {
+					@Override
+					public ReplicaSummary call() throws Exception {
+						return runReplica(params, seed, maxSteps);
+					}
+				});
+			}
+
+			ReplicaStatistics stats = new ReplicaStatistics();
+			for (int i = 0; i < seeds.length; i++)
+				stats.add(replicas.take().get());
+			return stats;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while running replicas", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Replica failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Draws the seeds of a set of replicas from a master seed.
+	 */
+	public static long[] seeds(long masterSeed, int replicas) {
+		MersenneTwisterFast random = new MersenneTwisterFast(masterSeed);
+		long[] seeds = new long[replicas];
+		for (int i = 0; i < replicas; i++)
+			seeds[i] = random.nextLong();
+		return seeds;
+	}
+
+	static ReplicaSummary runReplica(Properties params, long seed,
+			long maxSteps) {
+		Properties replicaParams = new Properties();
+		replicaParams.putAll(params);
+		replicaParams.setProperty(MimeticDesireRunner.SEED,
+				Long.toString(seed));
+
+		MimeticDesire model = MimeticDesireRunner.createModel(replicaParams);
+		MimeticDesireRunner runner = new MimeticDesireRunner(model, maxSteps);
+		runner.run();
+
+		return new ReplicaSummary(seed, runner.getSteps(), runner.isSuccess(),
+				model.getBestVal(), model.getMeanDistanceToBest());
+	}
+
+	/**
+	 * Result of a single replica.
+	 */
+	public static class ReplicaSummary {
+		public final long seed;
+		public final long steps;
+		public final boolean success;
+		public final double bestVal;
+		public final double meanDistanceToBest;
+
+		public ReplicaSummary(long seed, long steps, boolean success,
+				double bestVal, double meanDistanceToBest) {
+			this.seed = seed;
+			this.steps = steps;
+			this.success = success;
+			this.bestVal = bestVal;
+			this.meanDistanceToBest = meanDistanceToBest;
+		}
+	}
+
+	/**
+	 * Running aggregate of the replica summaries, only the moments and the
+	 * quantile markers are kept.
+	 */
+	public static class ReplicaStatistics {
+		public final SummaryStatistics steps = new SummaryStatistics();
+		public final SummaryStatistics bestVal = new SummaryStatistics();
+		public final SummaryStatistics meanDistanceToBest = new SummaryStatistics();
+
+		public final P2Quantile stepsMedian = new P2Quantile(0.5);
+		public final P2Quantile stepsP05 = new P2Quantile(0.05);
+		public final P2Quantile stepsP95 = new P2Quantile(0.95);
+		public final P2Quantile bestValMedian = new P2Quantile(0.5);
+
+		public long successes;
+
+		public void add(ReplicaSummary summary) {
+			steps.addValue(summary.steps);
+			bestVal.addValue(summary.bestVal);
+			meanDistanceToBest.addValue(summary.meanDistanceToBest);
+
+			stepsMedian.add(summary.steps);
+			stepsP05.add(summary.steps);
+			stepsP95.add(summary.steps);
+			bestValMedian.add(summary.bestVal);
+
+			if (summary.success)
+				successes++;
+		}
+
+		public long getN() {
+			return steps.getN();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("replicas: ").append(getN()).append('\n');
+			sb.append("successes: ").append(successes).append('\n');
+			sb.append("steps: mean ").append(steps.getMean())
+					.append(" var ").append(steps.getVariance())
+					.append(" p05 ").append(stepsP05.getResult())
+					.append(" median ").append(stepsMedian.getResult())
+					.append(" p95 ").append(stepsP95.getResult())
+					.append('\n');
+			sb.append("best value: mean ").append(bestVal.getMean())
+					.append(" var ").append(bestVal.getVariance())
+					.append(" median ").append(bestValMedian.getResult())
+					.append('\n');
+			sb.append("distance to best: mean ")
+					.append(meanDistanceToBest.getMean()).append(" var ")
+					.append(meanDistanceToBest.getVariance());
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Takes the same parameters as {@link MimeticDesireRunner} plus the number
+	 * of replicas and threads, the seed is used as the master seed.
+	 */
+	public static void main(String[] args) throws IOException {
+		Properties params = MimeticDesireRunner.parseArgs(args);
+
+		int replicas = Integer.parseInt(params.getProperty(REPLICAS, "50"));
+		int threads = Integer.parseInt(params.getProperty(THREADS,
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		long maxSteps = Long.parseLong(params.getProperty(
+				MimeticDesireRunner.MAX_STEPS,
+				Long.toString(MimeticDesireRunner.DEFAULT_MAX_STEPS)));
+		long masterSeed = params.containsKey(MimeticDesireRunner.SEED) ? Long
+				.parseLong(params.getProperty(MimeticDesireRunner.SEED))
+				: System.currentTimeMillis();
+
+		ReplicaStatistics stats = new ReplicaExecutor(threads).run(params,
+				seeds(masterSeed, replicas), maxSteps);
+
+		System.out.println("master seed: " + masterSeed);
+		System.out.println(stats);
+	}
+}
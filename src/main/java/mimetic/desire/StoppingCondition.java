@@ -16,9 +16,11 @@ public class StoppingCondition implements Steppable {
 	@Override
 	public void step(SimState state) {
 		MimeticDesire model = (MimeticDesire) state;
+		AgentState agentState = model.agentState;
 		int successCount = 0;
-		for (Agent a : model.agents) {
-			if (Math.abs(a.getFitness() - 1000) <= successThreshold)
+		for (int i = 0; i < agentState.size; i++) {
+			double fitness = agentState.fitness(i, model.landscape);
+			if (Math.abs(fitness - 1000) <= successThreshold)
 				successCount++;
 		}
 		if (successCount != prevSuccessCount) {
@@ -26,8 +28,10 @@ public class StoppingCondition implements Steppable {
 			// stop the simulation when all the agents found a
 			// Successful fitness
 			// give the threshold
-			if (successCount == model.numAgents)
+			if (successCount == model.numAgents) {
+				model.successStep = state.schedule.getSteps();
 				state.kill();
+			}
 		}
 
 	}
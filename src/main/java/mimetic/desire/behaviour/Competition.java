@@ -1,25 +1,25 @@
 package mimetic.desire.behaviour;
 
-import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.management.RuntimeErrorException;
-
-import org.apache.commons.math3.analysis.function.Sigmoid;
 import org.apache.commons.math3.util.FastMath;
 
-import sim.util.Double2D;
 import ec.EvolutionState;
-import ec.Evolve;
 import ec.Individual;
-import ec.cgp.eval.CGPSteppableInterpreter;
 import ec.cgp.genome.CGPIndividual;
-import ec.util.Output;
-import ec.util.ParameterDatabase;
 import mimetic.desire.Agent;
 import mimetic.desire.MimeticDesire;
+import mimetic.desire.behaviour.ecj.AsyncBreeder;
+import mimetic.desire.behaviour.ecj.EvoStateFactory;
+import mimetic.desire.behaviour.ecj.EvolvingPopulation;
+import mimetic.desire.behaviour.ecj.SharedEvolution;
+import mimetic.desire.behaviour.ecj.SteadyStateBreeder;
+import mimetic.desire.behaviour.ecj.Surrogate;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluator;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluators;
+import mimetic.desire.util.StreamingStatistics;
+import mimetic.desire.util.Utils;
 import mimetic.desire.behaviour.ecj.problems.MimeticEvaluation;
 
 //TODO this is a rough copy of fitenss behaviour
@@ -29,6 +29,17 @@ public class Competition extends AbstractBehaviour {
 	private final double[] constants = new double[] { 0.5, -0.5 };
 
 	private EvolutionState fEvoState;
+	// evolves the controllers, see MimeticDesire#breedingLag
+	private EvolvingPopulation breeder;
+	// replaces controllers one at a time, see MimeticDesire#steadyState
+	private SteadyStateBreeder steadyStateBreeder;
+	// rejects hopeless controllers early, see MimeticDesire#racing
+	private Racing racing;
+	// predicts the results of new controllers, only the most promising run
+	// in the simulation, see MimeticDesire#surrogateFraction
+	private Surrogate surrogate;
+	private boolean[] live;
+	private int numLive;
 
 	// how many steps do we need to maturate a controller (evaluate properly)
 	public int maturationSteps = 10;
@@ -42,10 +53,12 @@ public class Competition extends AbstractBehaviour {
 
 	// the current controller program that is used to update the agent
 	private CGPIndividual pController;
-	private CGPSteppableInterpreter interpreter;
+	private CGPEvaluator controllerEvaluator;
+	private final double[] outputs = new double[2];
+	private final double[] inputs = new double[8];
 
-	private Map<Individual, ArrayList<Double>> imitationErrors;
-	private Map<Individual, ArrayList<Double>> fitnessProgressionRecords;
+	private Map<Individual, StreamingStatistics> imitationErrors;
+	private Map<Individual, StreamingStatistics> fitnessProgressionRecords;
 
 	public Competition() {
 		super();
@@ -70,14 +83,14 @@ public class Competition extends AbstractBehaviour {
 		else {
 			// select random mediator
 			if (mediator == null) {
-				mediator = model.getBestNeighbour(agent.index);
+				mediator = model.getBestNeighbour(agent.index, agent.random);
 			}
-			int numControllers = fEvoState.population.subpops[0].individuals.length;
 			/*************************************************
 			 * continue executing the controllers
 			 *************************************************/
 			// a controller has maturated, update utility
-			if (steps > 0 && steps % (maturationSteps) == 0) {
+			if (!breeder.isBreeding() && steps > 0
+					&& steps % (maturationSteps) == 0) {
 				double competitionResult = currentCompetitionResult(pController);
 
 				
@@ -85,50 +98,76 @@ public class Competition extends AbstractBehaviour {
 				utility += competitionResult > 0 - competitionThreshold ? -0.01 * utilityUpdateSpeed
 						: -1 * utilityUpdateSpeed;
 
+				// hopeless controllers are dropped without waiting for their
+				// utility to run out
+				if (racing != null
+						&& racing.reject(imitationErrors.get(pController)))
+					utility = 0;
+
 				// current utility reached 0, switch controller
 				if (utility <= 0) {
-					numEvaluated++;
-					currentController = (currentController + 1)
-							% numControllers;
+					if (racing != null)
+						racing.finish(imitationErrors.get(pController));
+					if (surrogate != null)
+						surrogate.add(pController, competitionResult);
+					if (steadyStateBreeder != null) {
+						// breed a replacement for the used up controller
+						steadyStateBreeder.replace(currentController);
+						imitationErrors.remove(pController);
+						fitnessProgressionRecords.remove(pController);
+					} else {
+						numEvaluated++;
+					}
+					currentController = nextController(currentController);
 					utility = INITIAL_UTILITY;
 
 					// switch mediator, need a better mediator, or himself
-					mediator = model.getBestNeighbour(agent.index);
+					mediator = model.getBestNeighbour(agent.index,
+							agent.random);
 				}
 			}
 			/*************************************************
 			 * all controllers maturated, evolve
 			 *************************************************/
 
-			if (numEvaluated == numControllers) {
-				MimeticEvaluation problem = (MimeticEvaluation) fEvoState.evaluator.p_problem;
+			if (numEvaluated == numLive) {
+				MimeticEvaluation problem = (MimeticEvaluation) breeder.getProblem();
 				// usually it is not, the first time
 				if (!problem.isSetup()) {
 					problem.setup(agent, model, this);
 				}
-				// generate the next batch of controllers
-				fEvoState.evolve();
+				// evaluate the controllers and generate the next batch,
+				// possibly in the background
+				breeder.evolve(steps);
 
 				// lets erase the fitness records and record new ones for the
 				// new
 				// generation of controllers
 				resetImitationErrors();
+				if (racing != null)
+					racing.reset();
 
 				numEvaluated = 0;
+				if (!breeder.isBreeding())
+					screenControllers();
 			}
 
+			// the next generation is swapped in on a maturation step so that
+			// its controllers are evaluated over whole maturation periods,
+			// until then the agent keeps its last controller
+			if (breeder.isBreeding() && steps % (maturationSteps) == 0
+					&& breeder.update(steps))
+				screenControllers();
+			boolean breeding = breeder.isBreeding();
+
 			// fEvoState.output.message("evaluating individual: "
 			// + currentController);
 
-			pController = (CGPIndividual) fEvoState.population.subpops[0].individuals[currentController];
-
-			// interpret the result and update the velocity of the agent
-			interpreter.load(pController);
+			if (!breeding)
+				pController = (CGPIndividual) breeder.getIndividuals()[currentController];
 
 			// prepare inputs for cgp controller program(x)(y)(dx)(dy)(f) |
 			// (f-1) ----num inputs 8 ---- num outputs 2
-			Double2D position = agent.getPosition();
-			Double2D velocity = agent.getVelocity();
 
 			double currentFitness = agent.getFitness();
 
@@ -137,71 +176,90 @@ public class Competition extends AbstractBehaviour {
 				previousFitness = agent.getFitness();
 			}
 
-			Double2D bestLocalFitness = agent.getBestFitnessCoordinates();
-
-			double scaledX = scale(position.x, model.space.width * -0.5,
+			double scaledX = scale(agent.getX(), model.space.width * -0.5,
 					model.space.width * 0.5);
-			double scaledY = scale(position.y, model.space.height * -0.5,
+			double scaledY = scale(agent.getY(), model.space.height * -0.5,
 					model.space.height * 0.5);
 
-			double bestLocalX = scale(bestLocalFitness.x, model.space.width
-					* -0.5, model.space.width * 0.5);
-			double bestLocalY = scale(bestLocalFitness.y, model.space.height
-					* -0.5, model.space.height * 0.5);
+			double bestLocalX = scale(agent.getBestX(),
+					model.space.width * -0.5, model.space.width * 0.5);
+			double bestLocalY = scale(agent.getBestY(),
+					model.space.height * -0.5, model.space.height * 0.5);
 
 			// Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
 			// velocity.y, scaleFitness(currentFitness),
 			// scaleFitness(previousFitness), constants[0], constants[1] };
 
-			Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
-					velocity.y, bestLocalX, bestLocalY, constants[0],
-					constants[1] };
+			inputs[0] = scaledX;
+			inputs[1] = agent.getVx();
+			inputs[2] = scaledY;
+			inputs[3] = agent.getVy();
+			inputs[4] = bestLocalX;
+			inputs[5] = bestLocalY;
+			inputs[6] = constants[0];
+			inputs[7] = constants[1];
 
 			// update last fitness to current fitness
 			previousFitness = currentFitness;
 
 			// run the controller program
-			while (!interpreter.finished()) {
-				interpreter.step(inputs);
-			}
-			Object[] outputs = interpreter.getOutput();
+			controllerEvaluator.evaluate(pController, inputs, outputs);
 
 			// apply sigmoid to outputs to restrict velocity from -1 to 1
-			Sigmoid sig = new Sigmoid(-1.0, 1.0);
+			double dx = Utils.squash(outputs[0]);
+			double dy = Utils.squash(outputs[1]);
 
-			double dx = sig.value((double) outputs[0]);
-			double dy = sig.value((double) outputs[1]);
-
-			Double2D newVelocity = new Double2D(dx, dy);
 			// set the new position on the model
-			agent.setVelocity(newVelocity);
+			agent.setVelocity(dx, dy);
 			agent.updatePosition();
 
 			// fEvoState.output.message("executed controller: "
 			// + interpreter.getExpression());
 
-			recordCompetitionStatus();
+			if (!breeding)
+				recordCompetitionStatus();
 			steps++;
 
 		}
 
 	}
 
-	private Agent getRandomNeighbour() {
-		Agent[] neighbours = model.getNeighobours(agent.index);
-		return neighbours[model.random.nextInt(neighbours.length)];
+	/*
+	 * chooses the controllers of a new generation that run in the simulation,
+	 * the others keep the result predicted by the surrogate
+	 */
+	private void screenControllers() {
+		Individual[] controllers = breeder.getIndividuals();
+		if (surrogate == null) {
+			numLive = controllers.length;
+			return;
+		}
+		live = surrogate.screen(fEvoState, controllers,
+				model.surrogateFraction, true);
+
+		numLive = 0;
+		for (boolean l : live)
+			if (l)
+				numLive++;
+		currentController = nextController(-1);
 	}
 
-	public double currentCompetitionResult(CGPIndividual controller) {
-		ArrayList<Double> competitionStats = imitationErrors.get(controller);
+	// next controller that runs in the simulation
+	private int nextController(int controller) {
+		int numControllers = breeder.getIndividuals().length;
+		do {
+			controller = (controller + 1) % numControllers;
+		} while (live != null && !live[controller]);
+		return controller;
+	}
 
-		double imitationError = 0.0;
+	private Agent getRandomNeighbour() {
+		return model.getRandomNeighbour(agent.index, agent.random);
+	}
 
-		for (Double fError : competitionStats) {
-			imitationError += fError;
-		}
+	public double currentCompetitionResult(CGPIndividual controller) {
 		// observation average
-		return imitationError /= competitionStats.size();
+		return imitationErrors.get(controller).getMean();
 	}
 
 	/**
@@ -216,12 +274,12 @@ public class Competition extends AbstractBehaviour {
 		} else {
 
 			if (!imitationErrors.containsKey(pController)) {
-				imitationErrors.put(pController, new ArrayList<Double>());
+				imitationErrors.put(pController, new StreamingStatistics());
 			}
-			ArrayList<Double> errorRecord = imitationErrors.get(pController);
+			StreamingStatistics errorRecord = imitationErrors.get(pController);
 
 			double fitness = agent.getFitness();
-			double fitnessMediator = mediator.getBestFitness();
+			double fitnessMediator = mediator.getObservedBestFitness();
 
 			double fitnessDiff = (scaleFitness(fitness) - scaleFitness(fitnessMediator));
 
@@ -239,33 +297,43 @@ public class Competition extends AbstractBehaviour {
 	public void setup(Agent agent, MimeticDesire model) {
 		super.setup(agent, model);
 
-		File parameterFile = new File(Thread.currentThread()
-				.getContextClassLoader().getResource("competition.params")
-				.getPath().toString());
-
-		ParameterDatabase dbase = null;
-		try {
-			dbase = new ParameterDatabase(parameterFile, new String[] {
-					"-file", parameterFile.getCanonicalPath() });
-
-		} catch (Exception e) {
-			throw new RuntimeErrorException(
-					new Error(
-							"Couldn't load the configuration file for the evolutionary behaviour"));
-		}
 		this.steps = 0;
 
-		Output out = Evolve.buildOutput();
-
-		fEvoState = Evolve.initialize(dbase, 0, out);
-		interpreter = new CGPSteppableInterpreter();
+		if (model.sharedEvolution) {
+			// the controllers are a deme of the state shared by the agents
+			SharedEvolution engine = model
+					.getEvolutionEngine("competition.params");
+			fEvoState = engine.getState();
+			breeder = engine.createDeme(agent.random, model.breedingLag);
+		} else {
+			fEvoState = EvoStateFactory.initialize("competition.params",
+					model.parameterOverrides, agent.random);
+			fEvoState.startFresh();
+			breeder = new AsyncBreeder(fEvoState, model.breedingLag);
+		}
+		controllerEvaluator = CGPEvaluators.forState(fEvoState, model);
 
 		resetImitationErrors();
 		firstFitness = agent.getFitness();
-		fEvoState.startFresh();
+		numLive = breeder.getIndividuals().length;
+		if (model.surrogateFraction < 1)
+			surrogate = new Surrogate(Surrogate.DEFAULT_CAPACITY,
+					Surrogate.DEFAULT_K);
+		if (model.steadyState) {
+			// controllers are evaluated as soon as they are used up
+			((MimeticEvaluation) breeder.getProblem()).setup(agent,
+					model, this);
+			steadyStateBreeder = new SteadyStateBreeder(fEvoState);
+		}
 
 		this.maturationSteps = agent.evaluationPeriod;
 
+		// controllers race on their competition results (higher is better)
+		// and can be rejected after one maturation period
+		if (model.racing)
+			racing = new Racing(Racing.DEFAULT_Z, Math.max(2, maturationSteps),
+					true);
+
 		// int result = EvolutionState.R_NOTDONE;
 		//
 		// while (result == EvolutionState.R_NOTDONE) {
@@ -281,12 +349,12 @@ public class Competition extends AbstractBehaviour {
 	}
 
 	private void resetImitationErrors() {
-		imitationErrors = new HashMap<Individual, ArrayList<Double>>();
-		fitnessProgressionRecords = new HashMap<Individual, ArrayList<Double>>();
+		imitationErrors = new HashMap<Individual, StreamingStatistics>();
+		fitnessProgressionRecords = new HashMap<Individual, StreamingStatistics>();
 
 	}
 
-	public ArrayList<Double> getImitationErrors(CGPIndividual ind) {
+	public StreamingStatistics getImitationErrors(CGPIndividual ind) {
 		return imitationErrors.get(ind);
 	}
 
@@ -333,13 +401,14 @@ public class Competition extends AbstractBehaviour {
 		return result;
 	}
 
-	public ArrayList<Double> getFitnessProgressionRecords(CGPIndividual ind) {
+	public StreamingStatistics getFitnessProgressionRecords(CGPIndividual ind) {
 		return fitnessProgressionRecords.get(ind);
 	}
 
 	@Override
 	public void finish() {
-		Evolve.cleanup(fEvoState);
+		// shared states are cleaned up by the model
+		breeder.finish();
 	}
 
 }
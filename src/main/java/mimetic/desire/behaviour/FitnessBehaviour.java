@@ -1,33 +1,40 @@
 package mimetic.desire.behaviour;
 
-import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.management.RuntimeErrorException;
-
 import mimetic.desire.Agent;
+import mimetic.desire.GlobalBest;
 import mimetic.desire.MimeticDesire;
+import mimetic.desire.behaviour.ecj.AsyncBreeder;
+import mimetic.desire.behaviour.ecj.EvoStateFactory;
+import mimetic.desire.behaviour.ecj.SteadyStateBreeder;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluator;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluators;
+import mimetic.desire.util.StreamingStatistics;
+import mimetic.desire.util.Utils;
 import mimetic.desire.behaviour.ecj.problems.FitnessExploitation;
 
-import org.apache.commons.math3.analysis.function.Sigmoid;
 import org.apache.commons.math3.util.FastMath;
 
-import sim.util.Double2D;
 import ec.EvolutionState;
-import ec.Evolve;
 import ec.Individual;
-import ec.cgp.eval.CGPSteppableInterpreter;
 import ec.cgp.genome.CGPIndividual;
-import ec.util.Output;
-import ec.util.ParameterDatabase;
 
 public class FitnessBehaviour extends AbstractBehaviour {
 
 	private final double[] constants = new double[] { 1.0, -1.0 };
 
 	private EvolutionState fEvoState;
+	// evolves the controllers, see MimeticDesire#breedingLag
+	private AsyncBreeder breeder;
+	// replaces controllers one at a time, see MimeticDesire#steadyState
+	private SteadyStateBreeder steadyStateBreeder;
+	// scores whole generations with rollouts, see
+	// MimeticDesire#lookAheadHorizon
+	private LookAhead lookAhead;
+	// true once the current generation was scored by the rollouts
+	private boolean rolledOut;
 
 	// how many steps do we need to maturate a controller (evaluate properly)
 	public int maturationSteps = 10;
@@ -40,10 +47,14 @@ public class FitnessBehaviour extends AbstractBehaviour {
 
 	// the current controller program that is used to update the agent
 	private CGPIndividual pController;
-	private CGPSteppableInterpreter interpreter;
+	private CGPEvaluator controllerEvaluator;
+	private final double[] outputs = new double[2];
+	private final double[] inputs = new double[7];
 
-	private Map<Individual, ArrayList<Double>> fitnessRecords;
-	private Map<Individual, ArrayList<Double>> fitnessProgressionRecords;
+	// fitness records keep the last two maturation periods, enough to
+	// compute the fitness progression
+	private Map<Individual, StreamingStatistics> fitnessRecords;
+	private Map<Individual, StreamingStatistics> fitnessProgressionRecords;
 
 	public FitnessBehaviour() {
 		super();
@@ -66,12 +77,13 @@ public class FitnessBehaviour extends AbstractBehaviour {
 					"you called update on the behaviour without initialising its evolutionary state");
 		else {
 
-			int numControllers = fEvoState.population.subpops[0].individuals.length;
+			int numControllers = breeder.getIndividuals().length;
 			/*************************************************
 			 * continue executing the controllers
 			 *************************************************/
 			// a controller has maturated, update utility
-			if (steps > 0 && steps % (maturationSteps) == 0) {
+			if (lookAhead == null && !breeder.isBreeding() && steps > 0
+					&& steps % (maturationSteps) == 0) {
 				double progress = fitnessProgression(pController);
 
 				// fEvoState.output
@@ -87,10 +99,19 @@ public class FitnessBehaviour extends AbstractBehaviour {
 
 				// current utility reached 0, switch controller
 				if (utility <= 0) {
+					if (steadyStateBreeder != null) {
+						// breed a replacement for the used up controller,
+						// evaluated before its distance is reset
+						steadyStateBreeder.replace(currentController);
+						fitnessRecords.remove(pController);
+						fitnessProgressionRecords.remove(pController);
+					} else {
+						numEvaluated++;
+					}
+
 					//reset distance to global
 					distanceToGlobal=0;
 					
-					numEvaluated++;
 					currentController = (currentController + 1)
 							% numControllers;
 					utility = INITIAL_UTILITY;
@@ -100,35 +121,41 @@ public class FitnessBehaviour extends AbstractBehaviour {
 			 * all controllers maturated, evolve
 			 *************************************************/
 
-			if (numEvaluated == numControllers) {
-				FitnessExploitation problem = (FitnessExploitation) fEvoState.evaluator.p_problem;
-				// usually it is not, the first time
-				if (!problem.isSetup()) {
-					problem.setup(agent, model, this);
-				}
-				// generate the next batch of controllers
-				fEvoState.evolve();
+			if (numEvaluated == numControllers)
+				evolveControllers();
 
-				// lets erase the fitness records and record new ones for the
-				// new
-				// generation of controllers
-				resetFitnessRecords();
+			// with look-ahead the agent ran the best controller of the
+			// generation for a maturation period, breed the next one
+			if (lookAhead != null && rolledOut && !breeder.isBreeding()
+					&& steps % (maturationSteps) == 0) {
+				evolveControllers();
+				rolledOut = false;
+			}
 
-				numEvaluated = 0;
+			// the next generation is swapped in on a maturation step so that
+			// its controllers are evaluated over whole maturation periods,
+			// until then the agent keeps its last controller
+			if (breeder.isBreeding() && steps % (maturationSteps) == 0)
+				breeder.update(steps);
+			boolean breeding = breeder.isBreeding();
+
+			// score the new generation from the current state of the agent
+			if (lookAhead != null && !breeding && !rolledOut) {
+				forkState();
+				currentController = lookAhead.evaluate(breeder
+						.getIndividuals());
+				distanceToGlobal = 0;
+				rolledOut = true;
 			}
 
 			// fEvoState.output.message("evaluating individual: "
 			// + currentController);
 
-			pController = (CGPIndividual) fEvoState.population.subpops[0].individuals[currentController];
-
-			// interpret the result and update the velocity of the agent
-			interpreter.load(pController);
+			if (!breeding)
+				pController = (CGPIndividual) breeder.getIndividuals()[currentController];
 
 			// prepare inputs for cgp controller program(x)(y)(dx)(dy)(f) |
 			// (f-1) ----num inputs 8 ---- num outputs 2
-			Double2D position = agent.getPosition();
-			Double2D velocity = agent.getVelocity();
 
 			double currentFitness = agent.getFitness();
 
@@ -137,73 +164,144 @@ public class FitnessBehaviour extends AbstractBehaviour {
 				previousFitness = agent.getFitness();
 			}
 
-			double scaledX = scale(position.x, model.space.width * -0.5,
+			double scaledX = scale(agent.getX(), model.space.width * -0.5,
 					model.space.width * 0.5);
-			double scaledY = scale(position.y, model.space.height * -0.5,
+			double scaledY = scale(agent.getY(), model.space.height * -0.5,
 					model.space.height * 0.5);
 
 			// Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
 			// velocity.y, scaleFitness(currentFitness),
 			// scaleFitness(previousFitness), constants[0], constants[1] };
 
-			Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
-					velocity.y, scaleFitness(currentFitness), constants[0],
-					constants[1] };
+			inputs[0] = scaledX;
+			inputs[1] = agent.getVx();
+			inputs[2] = scaledY;
+			inputs[3] = agent.getVy();
+			inputs[4] = scaleFitness(currentFitness);
+			inputs[5] = constants[0];
+			inputs[6] = constants[1];
 
 			// update last fitness to current fitness
 			previousFitness = currentFitness;
 
 			// run the controller program
-			while (!interpreter.finished()) {
-				interpreter.step(inputs);
-			}
-			Object[] outputs = interpreter.getOutput();
+			controllerEvaluator.evaluate(pController, inputs, outputs);
 
 			// apply sigmoid to outputs to restrict velocity from -1 to 1
-			Sigmoid sig = new Sigmoid(-1.0, 1.0);
+			double dx = Utils.squash(outputs[0]);
+			double dy = Utils.squash(outputs[1]);
 
-			double dx = sig.value((double) outputs[0]);
-			double dy = sig.value((double) outputs[1]);
-
-			Double2D newVelocity = new Double2D(dx, dy);
 			// set the new position on the model
-			agent.setVelocity(newVelocity);
+			agent.setVelocity(dx, dy);
 			agent.updatePosition();
 
 			// fEvoState.output.message("executed controller: "
 			// + interpreter.getExpression());
 
-			recordFitness();
+			if (!breeding)
+				recordFitness();
 			steps++;
 
 		}
 
 	}
 
+	private void evolveControllers() {
+		FitnessExploitation problem = (FitnessExploitation) fEvoState.evaluator.p_problem;
+		// usually it is not, the first time
+		if (!problem.isSetup()) {
+			problem.setup(agent, model, this);
+		}
+		// evaluate the controllers and generate the next batch,
+		// possibly in the background
+		breeder.evolve(steps);
+
+		// lets erase the fitness records and record new ones for the
+		// new
+		// generation of controllers
+		resetFitnessRecords();
+
+		numEvaluated = 0;
+	}
+
+	private void forkState() {
+		LookAhead.Fork fork = lookAhead.getFork();
+		fork.x = agent.getX();
+		fork.y = agent.getY();
+		fork.vx = agent.getVx();
+		fork.vy = agent.getVy();
+
+		GlobalBest best = model.getBest();
+		fork.bestX = best.x;
+		fork.bestY = best.y;
+	}
+
+	/*
+	 * simulates a controller with the inputs of update(), the score is the
+	 * negated sum of the squared distances to the global best, the same
+	 * signal FitnessExploitation uses
+	 */
+	private class FitnessRollout implements LookAhead.Rollout {
+		@Override
+		public double run(CGPIndividual controller, CGPEvaluator evaluator,
+				LookAhead.Fork fork, int horizon) {
+			double[] inputs = new double[7];
+			double[] outputs = new double[2];
+
+			// fitness bounds of the agent when the state was forked
+			double min = minFitness;
+			double max = maxFitness;
+			if (steps == 0) {
+				min = fork.getFitness();
+				max = min;
+			}
+
+			double distance = 0;
+			for (int i = 0; i < horizon; i++) {
+				double fitness = fork.getFitness();
+				min = Math.min(min, fitness);
+				max = Math.max(max, fitness);
+
+				inputs[0] = scale(fork.x, fork.width * -0.5, fork.width * 0.5);
+				inputs[1] = fork.vx;
+				inputs[2] = scale(fork.y, fork.height * -0.5,
+						fork.height * 0.5);
+				inputs[3] = fork.vy;
+				inputs[4] = scale(fitness, min, max);
+				inputs[5] = constants[0];
+				inputs[6] = constants[1];
+
+				evaluator.evaluate(controller, inputs, outputs);
+				fork.move(Utils.squash(outputs[0]), Utils.squash(outputs[1]));
+				distance += fork.getDistanceToBest();
+			}
+			return -distance;
+		}
+	}
+
 	private double fitnessProgression(CGPIndividual controller) {
-		ArrayList<Double> fitnessR = fitnessRecords.get(controller);
+		StreamingStatistics fitnessR = fitnessRecords.get(controller);
 		if (!fitnessProgressionRecords.containsKey(controller)) {
-			fitnessProgressionRecords.put(controller, new ArrayList<Double>());
+			fitnessProgressionRecords.put(controller,
+					new StreamingStatistics());
 		}
-		ArrayList<Double> fitnessProgR = fitnessProgressionRecords
+		StreamingStatistics fitnessProgR = fitnessProgressionRecords
 				.get(controller);
 
 		double avgFitness = 0.0;
 
 		for (int i = 0; i < maturationSteps; i++) {
-			int index = fitnessR.size() - 1 - i;
-			avgFitness += fitnessR.get(index);
+			avgFitness += fitnessR.getRecent(i);
 		}
 		avgFitness /= maturationSteps;
 
 		double avgPrevFitness = 0.0;
 		// first time this is called
-		if (fitnessR.size() <= maturationSteps) {
+		if (fitnessR.getN() <= maturationSteps) {
 			avgPrevFitness = this.firstFitness;
 		} else {
 			for (int i = 0; i < maturationSteps; i++) {
-				int index = fitnessR.size() - 1 - maturationSteps - i;
-				avgPrevFitness += fitnessR.get(index);
+				avgPrevFitness += fitnessR.getRecent(maturationSteps + i);
 			}
 			avgPrevFitness /= maturationSteps;
 		}
@@ -231,17 +329,17 @@ public class FitnessBehaviour extends AbstractBehaviour {
 		} else {
 
 			if (!fitnessRecords.containsKey(pController)) {
-				fitnessRecords.put(pController, new ArrayList<Double>());
+				fitnessRecords.put(pController, new StreamingStatistics(
+						2 * maturationSteps));
 			}
-			ArrayList<Double> fitnessRecord = fitnessRecords.get(pController);
+			StreamingStatistics fitnessRecord = fitnessRecords.get(pController);
 			double currentFitness = agent.getFitness();
 
 			fitnessRecord.add(Math.pow((currentFitness - previousFitness), 2));
 		}
 
 		// record distance to global
-		double distance = model.space.tds(agent.getPosition(),
-				model.getBestPosition());
+		double distance = agent.getDistanceToGlobalBest();
 		distanceToGlobal += distance;
 	}
 
@@ -255,33 +353,30 @@ public class FitnessBehaviour extends AbstractBehaviour {
 	public void setup(Agent agent, MimeticDesire model) {
 		super.setup(agent, model);
 
-		File parameterFile = new File(Thread.currentThread()
-				.getContextClassLoader()
-				.getResource("fitness_exploitation.params").getPath()
-				.toString());
-
-		ParameterDatabase dbase = null;
-		try {
-			dbase = new ParameterDatabase(parameterFile, new String[] {
-					"-file", parameterFile.getCanonicalPath() });
-
-		} catch (Exception e) {
-			throw new RuntimeErrorException(
-					new Error(
-							"Couldn't load the configuration file for the evolutionary behaviour"));
-		}
 
-		Output out = Evolve.buildOutput();
-
-		fEvoState = Evolve.initialize(dbase, 0, out);
-		interpreter = new CGPSteppableInterpreter();
+		fEvoState = EvoStateFactory.initialize("fitness_exploitation.params",
+				model.parameterOverrides, agent.random);
+		controllerEvaluator = CGPEvaluators.forState(fEvoState, model);
 
 		resetFitnessRecords();
 		firstFitness = agent.getFitness();
 		fEvoState.startFresh();
+		breeder = new AsyncBreeder(fEvoState, model.breedingLag);
+		if (model.steadyState) {
+			// controllers are evaluated as soon as they are used up
+			((FitnessExploitation) fEvoState.evaluator.p_problem).setup(agent,
+					model, this);
+			steadyStateBreeder = new SteadyStateBreeder(fEvoState);
+		}
 
 		this.maturationSteps = agent.evaluationPeriod;
 
+		// whole generations are scored by rollouts, steady-state replacement
+		// keeps running the controllers in the simulation
+		if (model.lookAheadHorizon > 0 && !model.steadyState)
+			lookAhead = new LookAhead(fEvoState, model, new FitnessRollout(),
+					model.lookAheadHorizon);
+
 		// int result = EvolutionState.R_NOTDONE;
 		//
 		// while (result == EvolutionState.R_NOTDONE) {
@@ -297,12 +392,12 @@ public class FitnessBehaviour extends AbstractBehaviour {
 	}
 
 	private void resetFitnessRecords() {
-		fitnessRecords = new HashMap<Individual, ArrayList<Double>>();
-		fitnessProgressionRecords = new HashMap<Individual, ArrayList<Double>>();
+		fitnessRecords = new HashMap<Individual, StreamingStatistics>();
+		fitnessProgressionRecords = new HashMap<Individual, StreamingStatistics>();
 
 	}
 
-	public ArrayList<Double> getFitnessRecord(CGPIndividual ind) {
+	public StreamingStatistics getFitnessRecord(CGPIndividual ind) {
 		return fitnessRecords.get(ind);
 	}
 
@@ -338,13 +433,13 @@ public class FitnessBehaviour extends AbstractBehaviour {
 		return result;
 	}
 
-	public ArrayList<Double> getFitnessProgressionRecords(CGPIndividual ind) {
+	public StreamingStatistics getFitnessProgressionRecords(CGPIndividual ind) {
 		return fitnessProgressionRecords.get(ind);
 	}
 
 	@Override
 	public void finish() {
-		Evolve.cleanup(fEvoState);
+		breeder.finish();
 	}
 
 }
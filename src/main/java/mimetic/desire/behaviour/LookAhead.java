@@ -0,0 +1,243 @@
+package mimetic.desire.behaviour;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mimetic.desire.MimeticDesire;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluator;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluators;
+import mimetic.desire.util.Utils;
+import sim.app.pso.Evaluatable;
+import ec.EvolutionState;
+import ec.Individual;
+import ec.cgp.FitnessCGP;
+import ec.cgp.genome.CGPIndividual;
+
+/**
+ * Evaluates a generation of controllers with look-ahead rollouts instead of
+ * running them one after another in the simulation. The local situation of
+ * the agent (position, velocity, the velocity of its mediator and the global
+ * best position) is forked and each controller is simulated from that fork
+ * for a short horizon on worker threads. The fork only moves the agent on the
+ * fitness landscape, the other agents keep the state they had when it was
+ * taken.
+ *
+ * The rollout scores become the fitness of the controllers, the individuals
+ * are marked as evaluated so the evaluation problems skip them.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class LookAhead {
+	private static final ExecutorService executor = Utils.daemonPool(
+			"look-ahead", Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Simulates a controller from a fork of the agent state.
+	 */
+	public interface Rollout {
+		/**
+		 * @param controller
+		 *            the controller to simulate
+		 * @param evaluator
+		 *            runs the controller, owned by the calling thread
+		 * @param fork
+		 *            a private copy of the forked state, moved by the rollout
+		 * @param horizon
+		 *            number of steps to simulate
+		 * @return the score of the controller, higher is better
+		 */
+		double run(CGPIndividual controller, CGPEvaluator evaluator,
+				Fork fork, int horizon);
+	}
+
+	/**
+	 * The local situation of an agent, moves on the toroidal world the same
+	 * way as {@link MimeticDesire#move(int, double, double)}.
+	 */
+	public static class Fork {
+		public final Evaluatable landscape;
+		public final double width;
+		public final double height;
+		public final double velocityScalar;
+
+		public double x;
+		public double y;
+		public double vx;
+		public double vy;
+		public double mediatorVx;
+		public double mediatorVy;
+		public double bestX;
+		public double bestY;
+
+		public Fork(MimeticDesire model) {
+			this(model.landscape, model.width, model.height,
+					model.velocityScalar);
+		}
+
+		private Fork(Evaluatable landscape, double width, double height,
+				double velocityScalar) {
+			this.landscape = landscape;
+			this.width = width;
+			this.height = height;
+			this.velocityScalar = velocityScalar;
+		}
+
+		public Fork copy() {
+			Fork fork = new Fork(landscape, width, height, velocityScalar);
+			fork.x = x;
+			fork.y = y;
+			fork.vx = vx;
+			fork.vy = vy;
+			fork.mediatorVx = mediatorVx;
+			fork.mediatorVy = mediatorVy;
+			fork.bestX = bestX;
+			fork.bestY = bestY;
+			return fork;
+		}
+
+		public double getFitness() {
+			return landscape.calcFitness(x, y);
+		}
+
+		/**
+		 * Sets the velocity and moves by it.
+		 */
+		public void move(double vx, double vy) {
+			this.vx = vx;
+			this.vy = vy;
+			x = wrap(x + vx * velocityScalar, width);
+			y = wrap(y + vy * velocityScalar, height);
+		}
+
+		/**
+		 * Squared toroidal distance to the global best position.
+		 */
+		public double getDistanceToBest() {
+			double dx = delta(x, bestX, width);
+			double dy = delta(y, bestY, height);
+			return dx * dx + dy * dy;
+		}
+
+		// positions are centered on the origin
+		private static double wrap(double v, double size) {
+			double w = (v + size * 0.5) % size;
+			if (w < 0)
+				w += size;
+			return w - size * 0.5;
+		}
+
+		private static double delta(double a, double b, double size) {
+			double d = a - b;
+			if (d > size * 0.5)
+				d -= size;
+			else if (d < size * -0.5)
+				d += size;
+			return d;
+		}
+	}
+
+	private final EvolutionState state;
+	private final MimeticDesire model;
+	private final Rollout rollout;
+	private final int horizon;
+	private final Fork fork;
+
+	// evaluators keep their own registers, one per population slot
+	private CGPEvaluator[] evaluators = new CGPEvaluator[0];
+	private double[] scores = new double[0];
+
+	/**
+	 *
+	 * @param state
+	 *            the evolutionary state of the controllers
+	 * @param model
+	 *            the model, see {@link MimeticDesire#lookAheadHorizon}
+	 * @param rollout
+	 *            simulates the controllers of a behaviour
+	 * @param horizon
+	 *            the number of steps each controller is simulated
+	 */
+	public LookAhead(EvolutionState state, MimeticDesire model,
+			Rollout rollout, int horizon) {
+		if (horizon < 1)
+			throw new RuntimeException("Invalid look-ahead horizon: "
+					+ horizon);
+		this.state = state;
+		this.model = model;
+		this.rollout = rollout;
+		this.horizon = horizon;
+		this.fork = new Fork(model);
+	}
+
+	/**
+	 * The state copied by each rollout, the behaviour fills it before calling
+	 * {@link #evaluate(Individual[])}.
+	 */
+	public Fork getFork() {
+		return fork;
+	}
+
+	public int getHorizon() {
+		return horizon;
+	}
+
+	/**
+	 * Simulates all the controllers in parallel and sets their fitness to the
+	 * rollout scores.
+	 *
+	 * @param controllers
+	 *            the generation of controllers
+	 * @return the index of the controller with the best score
+	 */
+	public int evaluate(Individual[] controllers) {
+		int n = controllers.length;
+		if (evaluators.length != n) {
+			CGPEvaluator[] resized = new CGPEvaluator[n];
+			System.arraycopy(evaluators, 0, resized, 0,
+					Math.min(n, evaluators.length));
+			for (int i = evaluators.length; i < n; i++)
+				resized[i] = CGPEvaluators.forState(state, model);
+			evaluators = resized;
+			scores = new double[n];
+		}
+
+		List<Future<Double>> rollouts = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			final CGPIndividual controller = (CGPIndividual) controllers[i];
+			final CGPEvaluator evaluator = evaluators[i];
+			final Fork start = fork.copy();
+			rollouts.add(executor.submit(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception {
+					return rollout.run(controller, evaluator, start, horizon);
+				}
+			}));
+		}
+
+		try {
+			for (int i = 0; i < n; i++)
+				scores[i] = rollouts.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for rollouts",
+					e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Rollout failed", e.getCause());
+		}
+
+		int best = 0;
+		for (int i = 0; i < n; i++) {
+			((FitnessCGP) controllers[i].fitness).setFitness(state,
+					(float) scores[i], false);
+			controllers[i].evaluated = true;
+			if (scores[i] > scores[best])
+				best = i;
+		}
+		return best;
+	}
+}
@@ -1,25 +1,24 @@
 package mimetic.desire.behaviour;
 
-import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.management.RuntimeErrorException;
-
-import org.apache.commons.math3.analysis.function.Sigmoid;
 import org.apache.commons.math3.util.FastMath;
 
-import sim.util.Double2D;
 import ec.EvolutionState;
-import ec.Evolve;
 import ec.Individual;
-import ec.cgp.eval.CGPSteppableInterpreter;
 import ec.cgp.genome.CGPIndividual;
-import ec.util.Output;
-import ec.util.ParameterDatabase;
 import mimetic.desire.Agent;
 import mimetic.desire.MimeticDesire;
+import mimetic.desire.behaviour.ecj.AsyncBreeder;
+import mimetic.desire.behaviour.ecj.EvoStateFactory;
+import mimetic.desire.behaviour.ecj.EvolvingPopulation;
+import mimetic.desire.behaviour.ecj.SharedEvolution;
+import mimetic.desire.behaviour.ecj.SteadyStateBreeder;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluator;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluators;
+import mimetic.desire.util.StreamingStatistics;
+import mimetic.desire.util.Utils;
 import mimetic.desire.behaviour.ecj.problems.MimeticEvaluation;
 
 //TODO this is a rough copy of fitenss behaviour
@@ -29,6 +28,17 @@ public class MimeticBehaviour extends AbstractBehaviour {
 	private final double[] constants = new double[] { 1.0, -1.0 };
 
 	private EvolutionState fEvoState;
+	// evolves the controllers, see MimeticDesire#breedingLag
+	private EvolvingPopulation breeder;
+	// replaces controllers one at a time, see MimeticDesire#steadyState
+	private SteadyStateBreeder steadyStateBreeder;
+	// rejects hopeless controllers early, see MimeticDesire#racing
+	private Racing racing;
+	// scores whole generations with rollouts, see
+	// MimeticDesire#lookAheadHorizon
+	private LookAhead lookAhead;
+	// true once the current generation was scored by the rollouts
+	private boolean rolledOut;
 
 	// how many steps do we need to maturate a controller (evaluate properly)
 	public int maturationSteps = 10;
@@ -43,10 +53,14 @@ public class MimeticBehaviour extends AbstractBehaviour {
 
 	// the current controller program that is used to update the agent
 	private CGPIndividual pController;
-	private CGPSteppableInterpreter interpreter;
+	private CGPEvaluator controllerEvaluator;
+	private final double[] outputs = new double[2];
+	private final double[] inputs = new double[6];
 
-	private Map<Individual, ArrayList<Double2D>> imitationErrors;
-	private Map<Individual, ArrayList<Double>> fitnessProgressionRecords;
+	// the imitation error of each step is the sum of the absolute velocity
+	// errors in x and y
+	private Map<Individual, StreamingStatistics> imitationErrors;
+	private Map<Individual, StreamingStatistics> fitnessProgressionRecords;
 
 	public MimeticBehaviour() {
 		super();
@@ -71,12 +85,13 @@ public class MimeticBehaviour extends AbstractBehaviour {
 			if (mediator == null) {
 				mediator = getRandomNeighbour();
 			}
-			int numControllers = fEvoState.population.subpops[0].individuals.length;
+			int numControllers = breeder.getIndividuals().length;
 			/*************************************************
 			 * continue executing the controllers
 			 *************************************************/
 			// a controller has maturated, update utility
-			if (steps > 0 && steps % (maturationSteps) == 0) {
+			if (lookAhead == null && !breeder.isBreeding() && steps > 0
+					&& steps % (maturationSteps) == 0) {
 				double imitationError = currentImitationError(pController);
 
 				// fEvoState.output
@@ -91,9 +106,24 @@ public class MimeticBehaviour extends AbstractBehaviour {
 
 				// fEvoState.output.message("current utility: " + utility);
 
+				// hopeless controllers are dropped without waiting for their
+				// utility to run out
+				if (racing != null
+						&& racing.reject(imitationErrors.get(pController)))
+					utility = 0;
+
 				// current utility reached 0, switch controller
 				if (utility <= 0) {
-					numEvaluated++;
+					if (racing != null)
+						racing.finish(imitationErrors.get(pController));
+					if (steadyStateBreeder != null) {
+						// breed a replacement for the used up controller
+						steadyStateBreeder.replace(currentController);
+						imitationErrors.remove(pController);
+						fitnessProgressionRecords.remove(pController);
+					} else {
+						numEvaluated++;
+					}
 					currentController = (currentController + 1)
 							% numControllers;
 					utility = INITIAL_UTILITY;
@@ -105,35 +135,41 @@ public class MimeticBehaviour extends AbstractBehaviour {
 			 * all controllers maturated, evolve
 			 *************************************************/
 
-			if (numEvaluated == numControllers) {
-				MimeticEvaluation problem = (MimeticEvaluation) fEvoState.evaluator.p_problem;
-				// usually it is not, the first time
-				if (!problem.isSetup()) {
-					problem.setup(agent, model, this);
-				}
-				// generate the next batch of controllers
-				fEvoState.evolve();
+			if (numEvaluated == numControllers)
+				evolveControllers();
+
+			// with look-ahead the agent ran the best controller of the
+			// generation for a maturation period, breed the next one
+			if (lookAhead != null && rolledOut && !breeder.isBreeding()
+					&& steps % (maturationSteps) == 0) {
+				evolveControllers();
+				rolledOut = false;
+			}
 
-				// lets erase the fitness records and record new ones for the
-				// new
-				// generation of controllers
-				resetImitationErrors();
+			// the next generation is swapped in on a maturation step so that
+			// its controllers are evaluated over whole maturation periods,
+			// until then the agent keeps its last controller
+			if (breeder.isBreeding() && steps % (maturationSteps) == 0)
+				breeder.update(steps);
+			boolean breeding = breeder.isBreeding();
 
-				numEvaluated = 0;
+			// score the new generation against a new mediator
+			if (lookAhead != null && !breeding && !rolledOut) {
+				mediator = getRandomNeighbour();
+				forkState();
+				currentController = lookAhead.evaluate(breeder
+						.getIndividuals());
+				rolledOut = true;
 			}
 
 			// fEvoState.output.message("evaluating individual: "
 			// + currentController);
 
-			pController = (CGPIndividual) fEvoState.population.subpops[0].individuals[currentController];
-
-			// interpret the result and update the velocity of the agent
-			interpreter.load(pController);
+			if (!breeding)
+				pController = (CGPIndividual) breeder.getIndividuals()[currentController];
 
 			// prepare inputs for cgp controller program(x)(y)(dx)(dy)(f) |
 			// (f-1) ----num inputs 8 ---- num outputs 2
-			Double2D position = agent.getPosition();
-			Double2D velocity = agent.getVelocity();
 
 			double currentFitness = agent.getFitness();
 
@@ -142,65 +178,115 @@ public class MimeticBehaviour extends AbstractBehaviour {
 				previousFitness = agent.getFitness();
 			}
 
-			double scaledX = scale(position.x, model.space.width * -0.5,
+			double scaledX = scale(agent.getX(), model.space.width * -0.5,
 					model.space.width * 0.5);
-			double scaledY = scale(position.y, model.space.height * -0.5,
+			double scaledY = scale(agent.getY(), model.space.height * -0.5,
 					model.space.height * 0.5);
 
 			// Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
 			// velocity.y, scaleFitness(currentFitness),
 			// scaleFitness(previousFitness), constants[0], constants[1] };
 
-			Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
-					velocity.y, constants[0], constants[1] };
+			inputs[0] = scaledX;
+			inputs[1] = agent.getVx();
+			inputs[2] = scaledY;
+			inputs[3] = agent.getVy();
+			inputs[4] = constants[0];
+			inputs[5] = constants[1];
 
 			// update last fitness to current fitness
 			previousFitness = currentFitness;
 
 			// run the controller program
-			while (!interpreter.finished()) {
-				interpreter.step(inputs);
-			}
-			Object[] outputs = interpreter.getOutput();
+			controllerEvaluator.evaluate(pController, inputs, outputs);
 
 			// apply sigmoid to outputs to restrict velocity from -1 to 1
-			Sigmoid sig = new Sigmoid(-1.0, 1.0);
-
-			double dx = sig.value((double) outputs[0]);
-			double dy = sig.value((double) outputs[1]);
+			double dx = Utils.squash(outputs[0]);
+			double dy = Utils.squash(outputs[1]);
 
-			Double2D newVelocity = new Double2D(dx, dy);
 			// set the new position on the model
-			agent.setVelocity(newVelocity);
+			agent.setVelocity(dx, dy);
 			agent.updatePosition();
 
 			// fEvoState.output.message("executed controller: "
 			// + interpreter.getExpression());
 
-			recordImitationError();
+			if (!breeding)
+				recordImitationError();
 			steps++;
 
 		}
 
 	}
 
-	private Agent getRandomNeighbour() {
-		Agent[] neighbours = model.getNeighobours(agent.index);
-		return neighbours[model.random.nextInt(neighbours.length)];
-	}
+	private void evolveControllers() {
+		MimeticEvaluation problem = (MimeticEvaluation) breeder.getProblem();
+		// usually it is not, the first time
+		if (!problem.isSetup()) {
+			problem.setup(agent, model, this);
+		}
+		// evaluate the controllers and generate the next batch,
+		// possibly in the background
+		breeder.evolve(steps);
 
-	public double currentImitationError(CGPIndividual controller) {
-		ArrayList<Double2D> imitationErrorR = imitationErrors.get(controller);
+		// lets erase the fitness records and record new ones for the
+		// new
+		// generation of controllers
+		resetImitationErrors();
+		if (racing != null)
+			racing.reset();
 
-		double imitationError = 0.0;
+		numEvaluated = 0;
+	}
+
+	private void forkState() {
+		LookAhead.Fork fork = lookAhead.getFork();
+		fork.x = agent.getX();
+		fork.y = agent.getY();
+		fork.vx = agent.getVx();
+		fork.vy = agent.getVy();
+		fork.mediatorVx = mediator.getObservedVx();
+		fork.mediatorVy = mediator.getObservedVy();
+	}
 
-		for (Double2D vErrors : imitationErrorR) {
-			imitationError += FastMath.abs(vErrors.x) + FastMath.abs(vErrors.y);
+	/*
+	 * simulates a controller with the inputs of update(), the mediator keeps
+	 * the velocity it had when the state was forked, the score is the negated
+	 * mean imitation error
+	 */
+	private class ImitationRollout implements LookAhead.Rollout {
+		@Override
+		public double run(CGPIndividual controller, CGPEvaluator evaluator,
+				LookAhead.Fork fork, int horizon) {
+			double[] inputs = new double[6];
+			double[] outputs = new double[2];
+
+			double error = 0;
+			for (int i = 0; i < horizon; i++) {
+				inputs[0] = scale(fork.x, fork.width * -0.5, fork.width * 0.5);
+				inputs[1] = fork.vx;
+				inputs[2] = scale(fork.y, fork.height * -0.5,
+						fork.height * 0.5);
+				inputs[3] = fork.vy;
+				inputs[4] = constants[0];
+				inputs[5] = constants[1];
+
+				evaluator.evaluate(controller, inputs, outputs);
+				fork.move(Utils.squash(outputs[0]), Utils.squash(outputs[1]));
+				error += FastMath.abs(fork.vx - fork.mediatorVx)
+						+ FastMath.abs(fork.vy - fork.mediatorVy);
+			}
+			return -error / horizon;
 		}
-		// mean for the observations
-		imitationError /= imitationErrorR.size();
+	}
 
-		return imitationError;
+	private Agent getRandomNeighbour() {
+		return model.getRandomNeighbour(agent.index, agent.random);
+	}
+
+	public double currentImitationError(CGPIndividual controller) {
+		// mean for the observations
+		return imitationErrors.get(controller).getMean();
 	}
 
 	/**
@@ -215,20 +301,22 @@ public class MimeticBehaviour extends AbstractBehaviour {
 		} else {
 
 			if (!imitationErrors.containsKey(pController)) {
-				imitationErrors.put(pController, new ArrayList<Double2D>());
+				imitationErrors.put(pController, new StreamingStatistics());
 			}
-			ArrayList<Double2D> errorRecord = imitationErrors.get(pController);
+			StreamingStatistics errorRecord = imitationErrors.get(pController);
 
-			Double2D dxdy = agent.getVelocity();
-			Double2D dxdyMediator = mediator.getVelocity();
+			double vx = agent.getVx();
+			double vy = agent.getVy();
+			double mediatorVx = mediator.getObservedVx();
+			double mediatorVy = mediator.getObservedVy();
 
-			double xError = FastMath.abs(dxdy.x - dxdyMediator.x);
-			double yError = FastMath.abs(dxdy.y - dxdyMediator.y);
+			double xError = FastMath.abs(vx - mediatorVx);
+			double yError = FastMath.abs(vy - mediatorVy);
 
-			xError = (dxdy.x < dxdyMediator.x) ? xError * -1 : xError;
-			yError = (dxdy.y < dxdyMediator.y) ? xError * -1 : yError;
+			xError = (vx < mediatorVx) ? xError * -1 : xError;
+			yError = (vy < mediatorVy) ? xError * -1 : yError;
 
-			errorRecord.add(new Double2D(xError, yError));
+			errorRecord.add(FastMath.abs(xError) + FastMath.abs(yError));
 		}
 	}
 
@@ -242,33 +330,45 @@ public class MimeticBehaviour extends AbstractBehaviour {
 	public void setup(Agent agent, MimeticDesire model) {
 		super.setup(agent, model);
 
-		File parameterFile = new File(Thread.currentThread()
-				.getContextClassLoader()
-				.getResource("mimetic_behaviour.params").getPath().toString());
-
-		ParameterDatabase dbase = null;
-		try {
-			dbase = new ParameterDatabase(parameterFile, new String[] {
-					"-file", parameterFile.getCanonicalPath() });
-
-		} catch (Exception e) {
-			throw new RuntimeErrorException(
-					new Error(
-							"Couldn't load the configuration file for the evolutionary behaviour"));
-		}
 		this.steps = 0;
 
-		Output out = Evolve.buildOutput();
-
-		fEvoState = Evolve.initialize(dbase, 0, out);
-		interpreter = new CGPSteppableInterpreter();
+		if (model.sharedEvolution) {
+			// the controllers are a deme of the state shared by the agents
+			SharedEvolution engine = model
+					.getEvolutionEngine("mimetic_behaviour.params");
+			fEvoState = engine.getState();
+			breeder = engine.createDeme(agent.random, model.breedingLag);
+		} else {
+			fEvoState = EvoStateFactory.initialize("mimetic_behaviour.params",
+					model.parameterOverrides, agent.random);
+			fEvoState.startFresh();
+			breeder = new AsyncBreeder(fEvoState, model.breedingLag);
+		}
+		controllerEvaluator = CGPEvaluators.forState(fEvoState, model);
 
 		resetImitationErrors();
 		firstFitness = agent.getFitness();
-		fEvoState.startFresh();
+		if (model.steadyState) {
+			// controllers are evaluated as soon as they are used up
+			((MimeticEvaluation) breeder.getProblem()).setup(agent,
+					model, this);
+			steadyStateBreeder = new SteadyStateBreeder(fEvoState);
+		}
 
 		this.maturationSteps = agent.evaluationPeriod;
 
+		// whole generations are scored by rollouts, steady-state replacement
+		// keeps running the controllers in the simulation
+		if (model.lookAheadHorizon > 0 && !model.steadyState)
+			lookAhead = new LookAhead(fEvoState, model,
+					new ImitationRollout(), model.lookAheadHorizon);
+
+		// controllers race on their imitation errors (lower is better)
+		// and can be rejected after one maturation period
+		if (model.racing)
+			racing = new Racing(Racing.DEFAULT_Z, Math.max(2, maturationSteps),
+					false);
+
 		// int result = EvolutionState.R_NOTDONE;
 		//
 		// while (result == EvolutionState.R_NOTDONE) {
@@ -284,12 +384,12 @@ public class MimeticBehaviour extends AbstractBehaviour {
 	}
 
 	private void resetImitationErrors() {
-		imitationErrors = new HashMap<Individual, ArrayList<Double2D>>();
-		fitnessProgressionRecords = new HashMap<Individual, ArrayList<Double>>();
+		imitationErrors = new HashMap<Individual, StreamingStatistics>();
+		fitnessProgressionRecords = new HashMap<Individual, StreamingStatistics>();
 
 	}
 
-	public ArrayList<Double2D> getImitationErrors(CGPIndividual ind) {
+	public StreamingStatistics getImitationErrors(CGPIndividual ind) {
 		return imitationErrors.get(ind);
 	}
 
@@ -312,13 +412,14 @@ public class MimeticBehaviour extends AbstractBehaviour {
 		return result;
 	}
 
-	public ArrayList<Double> getFitnessProgressionRecords(CGPIndividual ind) {
+	public StreamingStatistics getFitnessProgressionRecords(CGPIndividual ind) {
 		return fitnessProgressionRecords.get(ind);
 	}
 
 	@Override
 	public void finish() {
-		Evolve.cleanup(fEvoState);
+		// shared states are cleaned up by the model
+		breeder.finish();
 	}
 
 }
@@ -1,19 +1,25 @@
 package mimetic.desire.behaviour;
 
-import sim.util.Double2D;
+import mimetic.desire.AgentState;
+import mimetic.desire.GlobalBest;
 import sim.util.MutableDouble2D;
 
 public class PSOBehaviour extends AbstractBehaviour {
 
+	// best position in the neighbourhood, reused between steps
+	private final MutableDouble2D nBestPos = new MutableDouble2D();
+
 	@Override
 	public void update() {
-		Double2D position = agent.getPosition();
-		Double2D velocity = agent.getVelocity();
+		AgentState state = model.agentState;
+		int i = agent.index;
+
+		double x = state.x[i];
+		double y = state.y[i];
 
-		double x = position.x;
-		double y = position.y;
+		// read the global best once so both components use the same record
+		GlobalBest best = model.getBest();
 
-		MutableDouble2D nBestPos = new MutableDouble2D();
 		model.getNeighborhoodBest(agent.index, nBestPos); // updates the
 															// location of
 		// nBestPos
@@ -21,25 +27,25 @@ public class PSOBehaviour extends AbstractBehaviour {
 		// calc new velocity
 		// calc x component
 
-		double inertia = velocity.x;
-		double pDelta = agent.bestFitnessP.x - x;
+		double inertia = state.vx[i];
+		double pDelta = state.bestX[i] - x;
 		double nDelta = nBestPos.x - x;
-		double gDelta = model.bestPosition.x - x;
-		double pWeight = model.random.nextDouble() + 0.4;
-		double nWeight = model.random.nextDouble() + 0.4;
-		double gWeight = model.random.nextDouble() + 0.4;
+		double gDelta = best.x - x;
+		double pWeight = agent.random.nextDouble() + 0.4;
+		double nWeight = agent.random.nextDouble() + 0.4;
+		double gWeight = agent.random.nextDouble() + 0.4;
 		double vx = (0.9 * inertia + pWeight * pDelta + nWeight * nDelta + gWeight
 				* gDelta)
 				/ (1 + pWeight + nWeight + gWeight);
 
 		// calc y component
-		inertia = velocity.y;
-		pDelta = agent.bestFitnessP.y - y;
+		inertia = state.vy[i];
+		pDelta = state.bestY[i] - y;
 		nDelta = nBestPos.y - y;
-		gDelta = model.bestPosition.y - y;
-		pWeight = Math.random() + 0.4;
-		nWeight = Math.random() + 0.4;
-		gWeight = Math.random() + 0.4;
+		gDelta = best.y - y;
+		pWeight = agent.random.nextDouble() + 0.4;
+		nWeight = agent.random.nextDouble() + 0.4;
+		gWeight = agent.random.nextDouble() + 0.4;
 		double vy = (0.8 * inertia + pWeight * pDelta + nWeight * nDelta + gWeight
 				* gDelta)
 				/ (1 + pWeight + nWeight + gWeight);
@@ -48,7 +54,8 @@ public class PSOBehaviour extends AbstractBehaviour {
 		vy *= model.velocityScalar;
 
 		// update velocity
-		agent.setVelocity(new Double2D(vx, vy));
+		state.vx[i] = vx;
+		state.vy[i] = vy;
 		agent.updatePosition();
 
 	}
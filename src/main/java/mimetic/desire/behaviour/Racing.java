@@ -0,0 +1,85 @@
+package mimetic.desire.behaviour;
+
+import mimetic.desire.util.StreamingStatistics;
+
+/**
+ * Races the controllers of a generation on a running score. Each controller
+ * score has a confidence interval of <code>z</code> standard errors around
+ * its mean, when a controller finishes its pessimistic bound is kept if it is
+ * the best so far. A running controller whose optimistic bound can no longer
+ * reach that best bound is hopeless and can be rejected before its utility or
+ * energy runs out, promising controllers keep their normal schedule.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class Racing {
+	public static final double DEFAULT_Z = 1.96;
+
+	private final double z;
+	private final long minSamples;
+	private final boolean maximize;
+
+	// pessimistic bound of the best controller that finished the race, the
+	// bounds are negated when minimizing so larger is always better
+	private double best = Double.NEGATIVE_INFINITY;
+
+	/**
+	 *
+	 * @param z
+	 *            the width of the confidence intervals in standard errors
+	 * @param minSamples
+	 *            samples needed before a controller can be rejected
+	 * @param maximize
+	 *            true if higher scores are better
+	 */
+	public Racing(double z, long minSamples, boolean maximize) {
+		if (minSamples < 2)
+			throw new RuntimeException(
+					"At least 2 samples are needed to estimate a confidence bound");
+		this.z = z;
+		this.minSamples = minSamples;
+		this.maximize = maximize;
+	}
+
+	/**
+	 * Returns true if a running controller can't beat the best controller that
+	 * finished the race.
+	 */
+	public boolean reject(long n, double mean, double sd) {
+		if (n < minSamples)
+			return false;
+		return bound(n, mean, sd, true) < best;
+	}
+
+	public boolean reject(StreamingStatistics score) {
+		return reject(score.getN(), score.getMean(),
+				score.getStandardDeviation());
+	}
+
+	/**
+	 * Records the score of a controller that stopped running.
+	 */
+	public void finish(long n, double mean, double sd) {
+		if (n < minSamples)
+			return;
+		best = Math.max(best, bound(n, mean, sd, false));
+	}
+
+	public void finish(StreamingStatistics score) {
+		finish(score.getN(), score.getMean(), score.getStandardDeviation());
+	}
+
+	/**
+	 * Starts a new race, e.g. for a new generation of controllers.
+	 */
+	public void reset() {
+		best = Double.NEGATIVE_INFINITY;
+	}
+
+	private double bound(long n, double mean, double sd, boolean optimistic) {
+		double margin = z * sd / Math.sqrt(n);
+		double score = maximize ? mean : -mean;
+		return optimistic ? score + margin : score - margin;
+	}
+}
@@ -1,33 +1,34 @@
 package mimetic.desire.behaviour;
 
-import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.management.RuntimeErrorException;
-
 import mimetic.desire.Agent;
 import mimetic.desire.MimeticDesire;
+import mimetic.desire.behaviour.ecj.AsyncBreeder;
+import mimetic.desire.behaviour.ecj.EvoStateFactory;
+import mimetic.desire.behaviour.ecj.SteadyStateBreeder;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluator;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluators;
+import mimetic.desire.util.StreamingStatistics;
+import mimetic.desire.util.Utils;
 import mimetic.desire.behaviour.ecj.problems.FitnessExploitation;
 
-import org.apache.commons.math3.analysis.function.Sigmoid;
 import org.apache.commons.math3.util.FastMath;
 
-import sim.util.Double2D;
 import ec.EvolutionState;
-import ec.Evolve;
 import ec.Individual;
-import ec.cgp.eval.CGPSteppableInterpreter;
 import ec.cgp.genome.CGPIndividual;
-import ec.util.Output;
-import ec.util.ParameterDatabase;
 
 public class SocialFitnessBehaviour extends AbstractBehaviour {
 
 	private final double[] constants = new double[] { 1.0, -1.0 };
 
 	private EvolutionState fEvoState;
+	// evolves the controllers, see MimeticDesire#breedingLag
+	private AsyncBreeder breeder;
+	// replaces controllers one at a time, see MimeticDesire#steadyState
+	private SteadyStateBreeder steadyStateBreeder;
 
 	// how many steps do we need to maturate a controller (evaluate properly)
 	public int maturationSteps = 10;
@@ -40,10 +41,14 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 
 	// the current controller program that is used to update the agent
 	private CGPIndividual pController;
-	private CGPSteppableInterpreter interpreter;
+	private CGPEvaluator controllerEvaluator;
+	private final double[] outputs = new double[2];
+	private final double[] inputs = new double[10];
 
-	private Map<Individual, ArrayList<Double>> fitnessRecords;
-	private Map<Individual, ArrayList<Double>> fitnessProgressionRecords;
+	// fitness records keep the last two maturation periods, enough to
+	// compute the fitness progression
+	private Map<Individual, StreamingStatistics> fitnessRecords;
+	private Map<Individual, StreamingStatistics> fitnessProgressionRecords;
 
 	public SocialFitnessBehaviour() {
 		super();
@@ -66,12 +71,13 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 					"you called update on the behaviour without initialising its evolutionary state");
 		else {
 
-			int numControllers = fEvoState.population.subpops[0].individuals.length;
+			int numControllers = breeder.getIndividuals().length;
 			/*************************************************
 			 * continue executing the controllers
 			 *************************************************/
 			// a controller has maturated, update utility
-			if (steps > 0 && steps % (maturationSteps) == 0) {
+			if (!breeder.isBreeding() && steps > 0
+					&& steps % (maturationSteps) == 0) {
 				double progress = fitnessProgression(pController);
 
 				// fEvoState.output
@@ -87,7 +93,14 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 
 				// current utility reached 0, switch controller
 				if (utility <= 0) {
-					numEvaluated++;
+					if (steadyStateBreeder != null) {
+						// breed a replacement for the used up controller
+						steadyStateBreeder.replace(currentController);
+						fitnessRecords.remove(pController);
+						fitnessProgressionRecords.remove(pController);
+					} else {
+						numEvaluated++;
+					}
 					currentController = (currentController + 1)
 							% numControllers;
 					utility = INITIAL_UTILITY;
@@ -105,8 +118,9 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 				if (!problem.isSetup()) {
 					problem.setup(agent, model, this);
 				}
-				// generate the next batch of controllers
-				fEvoState.evolve();
+				// evaluate the controllers and generate the next batch,
+				// possibly in the background
+				breeder.evolve(steps);
 
 				// lets erase the fitness records and record new ones for the
 				// new
@@ -116,18 +130,21 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 				numEvaluated = 0;
 			}
 
+			// the next generation is swapped in on a maturation step so that
+			// its controllers are evaluated over whole maturation periods,
+			// until then the agent keeps its last controller
+			if (breeder.isBreeding() && steps % (maturationSteps) == 0)
+				breeder.update(steps);
+			boolean breeding = breeder.isBreeding();
+
 			// fEvoState.output.message("evaluating individual: "
 			// + currentController);
 
-			pController = (CGPIndividual) fEvoState.population.subpops[0].individuals[currentController];
-
-			// interpret the result and update the velocity of the agent
-			interpreter.load(pController);
+			if (!breeding)
+				pController = (CGPIndividual) breeder.getIndividuals()[currentController];
 
 			// prepare inputs for cgp controller program(x)(y)(dx)(dy)(f) |
 			// (f-1) ----num inputs 8 ---- num outputs 2
-			Double2D position = agent.getPosition();
-			Double2D velocity = agent.getVelocity();
 
 			double currentFitness = agent.getFitness();
 
@@ -138,52 +155,52 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 				mediator = getRandomNeighbour();
 			}
 
-			double scaledX = scale(position.x, model.space.width * -0.5,
+			double scaledX = scale(agent.getX(), model.space.width * -0.5,
 					model.space.width * 0.5);
-			double scaledY = scale(position.y, model.space.height * -0.5,
+			double scaledY = scale(agent.getY(), model.space.height * -0.5,
 					model.space.height * 0.5);
 
-			Double2D mediatorP = mediator.getPosition();
-			double mediatorFitness = mediator.getFitness();
+			double mediatorFitness = mediator.getObservedFitness();
 
-			double mediatorSX = scale(mediatorP.x, model.space.width * -0.5,
-					model.space.width * 0.5);
-			double mediatorSY = scale(mediatorP.y, model.space.height * -0.5,
-					model.space.height * 0.5);
+			double mediatorSX = scale(mediator.getObservedX(),
+					model.space.width * -0.5, model.space.width * 0.5);
+			double mediatorSY = scale(mediator.getObservedY(),
+					model.space.height * -0.5, model.space.height * 0.5);
 
 			// Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
 			// velocity.y, scaleFitness(currentFitness),
 			// scaleFitness(previousFitness), constants[0], constants[1] };
 
-			Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
-					velocity.y, scaleFitness(currentFitness), mediatorSX,
-					mediatorSY, scaleFitness(mediatorFitness), constants[0],
-					constants[1] };
+			inputs[0] = scaledX;
+			inputs[1] = agent.getVx();
+			inputs[2] = scaledY;
+			inputs[3] = agent.getVy();
+			inputs[4] = scaleFitness(currentFitness);
+			inputs[5] = mediatorSX;
+			inputs[6] = mediatorSY;
+			inputs[7] = scaleFitness(mediatorFitness);
+			inputs[8] = constants[0];
+			inputs[9] = constants[1];
 
 			// update last fitness to current fitness
 			previousFitness = currentFitness;
 
 			// run the controller program
-			while (!interpreter.finished()) {
-				interpreter.step(inputs);
-			}
-			Object[] outputs = interpreter.getOutput();
+			controllerEvaluator.evaluate(pController, inputs, outputs);
 
 			// apply sigmoid to outputs to restrict velocity from -1 to 1
-			Sigmoid sig = new Sigmoid(-1.0, 1.0);
+			double dx = Utils.squash(outputs[0]);
+			double dy = Utils.squash(outputs[1]);
 
-			double dx = sig.value((double) outputs[0]);
-			double dy = sig.value((double) outputs[1]);
-
-			Double2D newVelocity = new Double2D(dx, dy);
 			// set the new position on the model
-			agent.setVelocity(newVelocity);
+			agent.setVelocity(dx, dy);
 			agent.updatePosition();
 
 			// fEvoState.output.message("executed controller: "
 			// + interpreter.getExpression());
 
-			recordFitness();
+			if (!breeding)
+				recordFitness();
 			steps++;
 
 		}
@@ -191,29 +208,28 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 	}
 
 	private double fitnessProgression(CGPIndividual controller) {
-		ArrayList<Double> fitnessR = fitnessRecords.get(controller);
+		StreamingStatistics fitnessR = fitnessRecords.get(controller);
 		if (!fitnessProgressionRecords.containsKey(controller)) {
-			fitnessProgressionRecords.put(controller, new ArrayList<Double>());
+			fitnessProgressionRecords.put(controller,
+					new StreamingStatistics());
 		}
-		ArrayList<Double> fitnessProgR = fitnessProgressionRecords
+		StreamingStatistics fitnessProgR = fitnessProgressionRecords
 				.get(controller);
 
 		double avgFitness = 0.0;
 
 		for (int i = 0; i < maturationSteps; i++) {
-			int index = fitnessR.size() - 1 - i;
-			avgFitness += fitnessR.get(index);
+			avgFitness += fitnessR.getRecent(i);
 		}
 		avgFitness /= maturationSteps;
 
 		double avgPrevFitness = 0.0;
 		// first time this is called
-		if (fitnessR.size() <= maturationSteps) {
+		if (fitnessR.getN() <= maturationSteps) {
 			avgPrevFitness = this.firstFitness;
 		} else {
 			for (int i = 0; i < maturationSteps; i++) {
-				int index = fitnessR.size() - 1 - maturationSteps - i;
-				avgPrevFitness += fitnessR.get(index);
+				avgPrevFitness += fitnessR.getRecent(maturationSteps + i);
 			}
 			avgPrevFitness /= maturationSteps;
 		}
@@ -241,9 +257,10 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 		} else {
 
 			if (!fitnessRecords.containsKey(pController)) {
-				fitnessRecords.put(pController, new ArrayList<Double>());
+				fitnessRecords.put(pController, new StreamingStatistics(
+						2 * maturationSteps));
 			}
-			ArrayList<Double> fitnessRecord = fitnessRecords.get(pController);
+			StreamingStatistics fitnessRecord = fitnessRecords.get(pController);
 			double currentFitness = agent.getFitness();
 
 			fitnessRecord.add(Math.pow((currentFitness - previousFitness), 2));
@@ -260,29 +277,21 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 	public void setup(Agent agent, MimeticDesire model) {
 		super.setup(agent, model);
 
-		File parameterFile = new File(Thread.currentThread()
-				.getContextClassLoader().getResource("social_fitness.params")
-				.getPath().toString());
-
-		ParameterDatabase dbase = null;
-		try {
-			dbase = new ParameterDatabase(parameterFile, new String[] {
-					"-file", parameterFile.getCanonicalPath() });
-
-		} catch (Exception e) {
-			throw new RuntimeErrorException(
-					new Error(
-							"Couldn't load the configuration file for the evolutionary behaviour"));
-		}
-
-		Output out = Evolve.buildOutput();
 
-		fEvoState = Evolve.initialize(dbase, 0, out);
-		interpreter = new CGPSteppableInterpreter();
+		fEvoState = EvoStateFactory.initialize("social_fitness.params",
+				model.parameterOverrides, agent.random);
+		controllerEvaluator = CGPEvaluators.forState(fEvoState, model);
 
 		resetFitnessRecords();
 		firstFitness = agent.getFitness();
 		fEvoState.startFresh();
+		breeder = new AsyncBreeder(fEvoState, model.breedingLag);
+		if (model.steadyState) {
+			// controllers are evaluated as soon as they are used up
+			((FitnessExploitation) fEvoState.evaluator.p_problem).setup(agent,
+					model, this);
+			steadyStateBreeder = new SteadyStateBreeder(fEvoState);
+		}
 
 		this.maturationSteps = agent.evaluationPeriod;
 
@@ -301,12 +310,12 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 	}
 
 	private void resetFitnessRecords() {
-		fitnessRecords = new HashMap<Individual, ArrayList<Double>>();
-		fitnessProgressionRecords = new HashMap<Individual, ArrayList<Double>>();
+		fitnessRecords = new HashMap<Individual, StreamingStatistics>();
+		fitnessProgressionRecords = new HashMap<Individual, StreamingStatistics>();
 
 	}
 
-	public ArrayList<Double> getFitnessRecord(CGPIndividual ind) {
+	public StreamingStatistics getFitnessRecord(CGPIndividual ind) {
 		return fitnessRecords.get(ind);
 	}
 
@@ -342,18 +351,17 @@ public class SocialFitnessBehaviour extends AbstractBehaviour {
 		return result;
 	}
 
-	public ArrayList<Double> getFitnessProgressionRecords(CGPIndividual ind) {
+	public StreamingStatistics getFitnessProgressionRecords(CGPIndividual ind) {
 		return fitnessProgressionRecords.get(ind);
 	}
 
 	@Override
 	public void finish() {
-		Evolve.cleanup(fEvoState);
+		breeder.finish();
 	}
 
 	private Agent getRandomNeighbour() {
-		Agent[] neighbours = model.getNeighobours(agent.index);
-		return neighbours[model.random.nextInt(neighbours.length)];
+		return model.getRandomNeighbour(agent.index, agent.random);
 	}
 
 }
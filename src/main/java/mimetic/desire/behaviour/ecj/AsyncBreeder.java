@@ -0,0 +1,188 @@
+package mimetic.desire.behaviour.ecj;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mimetic.desire.util.Utils;
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Problem;
+
+/**
+ * Evolves the controller population of a behaviour, optionally breeding the
+ * next generation on a background thread so that the agent does not stall at
+ * generation boundaries.
+ *
+ * The evaluation of a generation always runs on the calling (simulation)
+ * thread since the evaluation problems read the records of the behaviour.
+ * Breeding only uses the evolutionary state and its random streams, it runs
+ * against the evaluated population while the behaviour keeps using the
+ * individuals returned by {@link #getIndividuals()}. The new generation only
+ * becomes visible to the behaviour when {@link #update(long)} swaps it in.
+ *
+ * The breeding lag controls when that happens:
+ * <ul>
+ * <li>0 breeds synchronously, the same as {@link EvolutionState#evolve()};</li>
+ * <li>a positive lag swaps the new generation exactly lag steps after
+ * breeding starts, waiting for it if needed, so runs are reproducible;</li>
+ * <li>{@link #WHEN_READY} swaps it on the first step it is ready, which
+ * depends on thread scheduling.</li>
+ * </ul>
+ *
+ * The state must not be accessed directly (e.g. through its population) while
+ * {@link #isBreeding()}.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class AsyncBreeder implements EvolvingPopulation {
+	public static final int WHEN_READY = -1;
+
+	private static final ExecutorService executor = Utils.daemonPool(
+			"ecj-breeder", Runtime.getRuntime().availableProcessors());
+
+	private final EvolutionState state;
+	private final int lag;
+
+	// the generation in use by the behaviour
+	private Individual[] individuals;
+
+	private Future<Individual[]> next;
+	private long swapStep;
+
+	/**
+	 *
+	 * @param state
+	 *            a started evolutionary state
+	 * @param lag
+	 *            the breeding lag in steps, 0 or {@link #WHEN_READY}
+	 */
+	public AsyncBreeder(EvolutionState state, int lag) {
+		if (lag < WHEN_READY)
+			throw new RuntimeException("Invalid breeding lag: " + lag);
+		if (lag != 0 && state.checkpoint)
+			throw new RuntimeException(
+					"Checkpoints are not supported with asynchronous breeding");
+		this.state = state;
+		this.lag = lag;
+		this.individuals = state.population.subpops[0].individuals;
+	}
+
+	@Override
+	public Individual[] getIndividuals() {
+		return individuals;
+	}
+
+	@Override
+	public boolean isBreeding() {
+		return next != null;
+	}
+
+	@Override
+	public void evolve(long step) {
+		if (next != null)
+			throw new RuntimeException(
+					"The previous generation is still being bred");
+
+		if (lag == 0) {
+			state.evolve();
+			individuals = state.population.subpops[0].individuals;
+			return;
+		}
+
+		if (!evaluate())
+			return;
+
+		next = executor.submit(new Callable<Individual[]>() {
+			@Override
+			public Individual[] call() throws Exception {
+				breed();
+				return state.population.subpops[0].individuals;
+			}
+		});
+		swapStep = step + lag;
+	}
+
+	@Override
+	public boolean update(long step) {
+		if (next == null)
+			return false;
+		if (lag == WHEN_READY ? !next.isDone() : step < swapStep)
+			return false;
+
+		try {
+			individuals = next.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(
+					"Interrupted while waiting for the next generation", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Breeding failed", e.getCause());
+		}
+		next = null;
+		return true;
+	}
+
+	@Override
+	public Problem getProblem() {
+		return state.evaluator.p_problem;
+	}
+
+	/**
+	 * Waits for the generation being bred, if any, and cleans up the state.
+	 */
+	@Override
+	public void finish() {
+		if (next != null) {
+			try {
+				next.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// the run is over, the failed generation is discarded
+			}
+			next = null;
+		}
+		Evolve.cleanup(state);
+	}
+
+	/*
+	 * the evaluation half of SimpleEvolutionState.evolve(), returns false if
+	 * the run is over and there is nothing to breed
+	 */
+	private boolean evaluate() {
+		state.statistics.preEvaluationStatistics(state);
+		state.evaluator.evaluatePopulation(state);
+		state.statistics.postEvaluationStatistics(state);
+
+		if (state.evaluator.runComplete(state) && state.quitOnRunComplete)
+			return false;
+		return state.generation != state.numGenerations - 1;
+	}
+
+	/*
+	 * the breeding half of SimpleEvolutionState.evolve()
+	 */
+	private void breed() {
+		state.statistics.prePreBreedingExchangeStatistics(state);
+		state.population = state.exchanger.preBreedingExchangePopulation(state);
+		state.statistics.postPreBreedingExchangeStatistics(state);
+
+		if (state.exchanger.runComplete(state) != null)
+			return;
+
+		state.statistics.preBreedingStatistics(state);
+		state.population = state.breeder.breedPopulation(state);
+		state.statistics.postBreedingStatistics(state);
+
+		state.statistics.prePostBreedingExchangeStatistics(state);
+		state.population = state.exchanger
+				.postBreedingExchangePopulation(state);
+		state.statistics.postPostBreedingExchangeStatistics(state);
+
+		state.generation++;
+	}
+}
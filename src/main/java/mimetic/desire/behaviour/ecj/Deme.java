@@ -0,0 +1,159 @@
+package mimetic.desire.behaviour.ecj;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.Problem;
+import ec.Subpopulation;
+import ec.simple.SimpleProblemForm;
+import ec.util.MersenneTwisterFast;
+
+/**
+ * The controller population of one agent in a {@link SharedEvolution}. The
+ * deme only keeps its index in the shared state, its random stream and its
+ * evaluation problem.
+ *
+ * Generations follow the same protocol as {@link AsyncBreeder}: the
+ * evaluation runs on the calling (simulation) thread, breeding runs on the
+ * workers of the shared state and the new generation is swapped in by
+ * {@link #update(long)} according to the breeding lag. With a lag of 0 the
+ * deme waits for its new generation before {@link #evolve(long)} returns.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class Deme implements EvolvingPopulation {
+	private final SharedEvolution engine;
+	private final EvolutionState state;
+	private final int index;
+	private final MersenneTwisterFast random;
+	private final Problem problem;
+	private final int lag;
+
+	private int generation;
+	// best individual evaluated in this deme, as kept by SimpleStatistics
+	private Individual bestSoFar;
+
+	private Future<Subpopulation> next;
+	private long swapStep;
+
+	Deme(SharedEvolution engine, int index, MersenneTwisterFast random,
+			Problem problem, int lag) {
+		if (lag < AsyncBreeder.WHEN_READY)
+			throw new RuntimeException("Invalid breeding lag: " + lag);
+		this.engine = engine;
+		this.state = engine.getState();
+		this.index = index;
+		this.random = random;
+		this.problem = problem;
+		this.lag = lag;
+	}
+
+	/**
+	 * The index of the deme subpopulation in the shared state.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * The best individual evaluated so far, null before the first evaluation.
+	 */
+	public Individual getBestSoFar() {
+		return bestSoFar;
+	}
+
+	@Override
+	public Individual[] getIndividuals() {
+		return state.population.subpops[index].individuals;
+	}
+
+	@Override
+	public boolean isBreeding() {
+		return next != null;
+	}
+
+	@Override
+	public void evolve(long step) {
+		if (next != null)
+			throw new RuntimeException(
+					"The previous generation is still being bred");
+
+		if (!evaluate())
+			return;
+
+		next = engine.breed(index, random);
+		swapStep = step + lag;
+		if (lag == 0)
+			update(step);
+	}
+
+	@Override
+	public boolean update(long step) {
+		if (next == null)
+			return false;
+		if (lag == AsyncBreeder.WHEN_READY ? !next.isDone() : step < swapStep)
+			return false;
+
+		try {
+			engine.swap(index, next.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(
+					"Interrupted while waiting for the next generation", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Breeding failed", e.getCause());
+		}
+		next = null;
+		generation++;
+		return true;
+	}
+
+	@Override
+	public Problem getProblem() {
+		return problem;
+	}
+
+	/**
+	 * Waits for the generation being bred, if any. The shared state is cleaned
+	 * up by {@link SharedEvolution#cleanup()}.
+	 */
+	@Override
+	public void finish() {
+		if (next != null) {
+			try {
+				next.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// the run is over, the failed generation is discarded
+			}
+			next = null;
+		}
+	}
+
+	/*
+	 * evaluates the deme with its own problem, returns false if the run of
+	 * the deme is over and there is nothing to breed
+	 */
+	private boolean evaluate() {
+		boolean ideal = false;
+		for (Individual ind : getIndividuals()) {
+			((SimpleProblemForm) problem).evaluate(state, ind, index, 0);
+
+			if (bestSoFar == null || ind.fitness.betterThan(bestSoFar.fitness))
+				bestSoFar = (Individual) ind.clone();
+			ideal |= ind.fitness.isIdealFitness();
+		}
+
+		if (ideal && state.quitOnRunComplete)
+			return false;
+		return generation != state.numGenerations - 1;
+	}
+}
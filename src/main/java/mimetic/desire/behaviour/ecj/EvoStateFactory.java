@@ -0,0 +1,171 @@
+package mimetic.desire.behaviour.ecj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.util.MersenneTwisterFast;
+import ec.util.Output;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+
+/**
+ * Creates the {@link EvolutionState evolutionary states} used by the agent
+ * behaviours. Each parameter file (with its <code>parent.N</code> chain) is
+ * read and parsed once per JVM, the result is flattened into a single
+ * immutable map that every agent copies into its own
+ * {@link ParameterDatabase}.
+ *
+ * Files are read as classpath streams so they load the same way from the
+ * class directories or from inside a packaged jar. Parent file names are
+ * resolved relative to the resource that declares them.
+ *
+ * Parents follow the ECJ lookup order: a parameter defined in a file hides the
+ * one in its parents, parent 0 (and its ancestors) hides parent 1 and so on.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class EvoStateFactory {
+	private static final String PARENT = "parent.";
+
+	private static final ConcurrentMap<String, Map<String, String>> cache = new ConcurrentHashMap<>();
+
+	private EvoStateFactory() {
+	}
+
+	/**
+	 * Returns the parameters in a parameter file and its parents, the file is
+	 * only parsed the first time it is requested.
+	 *
+	 * @param filename
+	 *            the parameter file name in the classpath
+	 */
+	public static Map<String, String> getParameters(String filename) {
+		Map<String, String> params = cache.get(filename);
+		if (params == null) {
+			Map<String, String> flat = new ConcurrentHashMap<>();
+			load(filename, flat);
+			cache.putIfAbsent(filename, Collections.unmodifiableMap(flat));
+			params = cache.get(filename);
+		}
+		return params;
+	}
+
+	/**
+	 * Creates a new parameter database with the parameters of the given file,
+	 * the database belongs to the caller and can be modified.
+	 *
+	 * @param filename
+	 *            the parameter file name in the classpath
+	 * @param overrides
+	 *            parameters that replace the ones in the file, can be null
+	 */
+	public static ParameterDatabase createDatabase(String filename,
+			Map<String, String> overrides) {
+		Properties properties = new Properties();
+		properties.putAll(getParameters(filename));
+		if (overrides != null)
+			properties.putAll(overrides);
+		try {
+			return new ParameterDatabase(properties);
+		} catch (IOException e) {
+			throw new RuntimeException(
+					"Couldn't load the configuration file for the evolutionary behaviour",
+					e);
+		}
+	}
+
+	/**
+	 * Initializes an evolutionary state from a parameter file, seeded from the
+	 * given random stream. The state still needs to be started with
+	 * {@link EvolutionState#startFresh()}.
+	 *
+	 * @param filename
+	 *            the parameter file name in the classpath
+	 * @param overrides
+	 *            parameters that replace the ones in the file, can be null
+	 * @param random
+	 *            the random stream of the agent that owns the state
+	 */
+	public static EvolutionState initialize(String filename,
+			Map<String, String> overrides, MersenneTwisterFast random) {
+		ParameterDatabase dbase = createDatabase(filename, overrides);
+
+		// seed the evolutionary state from the agent random stream so that
+		// runs with the same model seed are reproducible
+		dbase.set(new Parameter("seed.0"), Integer.toString(random.nextInt()));
+
+		Output out = Evolve.buildOutput();
+
+		return Evolve.initialize(dbase, 0, out);
+	}
+
+	/*
+	 * loads a parameter file, its parents are loaded first in reverse order so
+	 * that the values of the file and of its first parents take precedence
+	 */
+	private static void load(String resource, Map<String, String> params) {
+		InputStream in = Thread.currentThread().getContextClassLoader()
+				.getResourceAsStream(resource);
+		if (in == null)
+			throw new RuntimeException("Couldn't find the parameter file "
+					+ resource);
+
+		Properties properties = new Properties();
+		try {
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't read the parameter file "
+					+ resource, e);
+		}
+
+		int numParents = 0;
+		while (properties.containsKey(PARENT + numParents))
+			numParents++;
+
+		for (int i = numParents - 1; i >= 0; i--) {
+			String parent = properties.getProperty(PARENT + i).trim();
+			load(resolve(resource, parent), params);
+			properties.remove(PARENT + i);
+		}
+
+		for (String key : properties.stringPropertyNames())
+			params.put(key, properties.getProperty(key).trim());
+	}
+
+	/*
+	 * resolves a parent file name against the directory of the resource that
+	 * declares it, classpath resource names always use '/'
+	 */
+	static String resolve(String resource, String parent) {
+		String path = parent.replace('\\', '/');
+		if (path.startsWith("/"))
+			return path.substring(1);
+
+		int end = resource.lastIndexOf('/');
+		String dir = end < 0 ? "" : resource.substring(0, end);
+
+		while (path.startsWith("../") || path.startsWith("./")) {
+			if (path.startsWith("./")) {
+				path = path.substring(2);
+			} else {
+				path = path.substring(3);
+				int up = dir.lastIndexOf('/');
+				dir = up < 0 ? "" : dir.substring(0, up);
+			}
+		}
+
+		return dir.isEmpty() ? path : dir + "/" + path;
+	}
+}
@@ -0,0 +1,56 @@
+package mimetic.desire.behaviour.ecj;
+
+import ec.Individual;
+import ec.Problem;
+
+/**
+ * The controller population of an agent behaviour, evolved one generation at
+ * a time. Either a whole {@link ec.EvolutionState} owned by the agent (see
+ * {@link AsyncBreeder}) or a deme of an evolutionary state shared by all the
+ * agents (see {@link SharedEvolution}).
+ *
+ * @author Davide Nunes
+ *
+ */
+public interface EvolvingPopulation {
+
+	/**
+	 * The individuals of the current generation.
+	 */
+	Individual[] getIndividuals();
+
+	/**
+	 * True if the next generation is being bred and was not swapped in yet.
+	 */
+	boolean isBreeding();
+
+	/**
+	 * Evaluates the current generation and starts breeding the next one.
+	 *
+	 * @param step
+	 *            the current step of the behaviour
+	 */
+	void evolve(long step);
+
+	/**
+	 * Swaps in the next generation if it is due.
+	 *
+	 * @param step
+	 *            the current step of the behaviour
+	 * @return true if a new generation was swapped in
+	 */
+	boolean update(long step);
+
+	/**
+	 * The problem that evaluates the individuals, the behaviour sets it up
+	 * with its records before the first evaluation.
+	 */
+	Problem getProblem();
+
+	/**
+	 * Waits for the generation being bred, if any, and releases the
+	 * evolutionary state owned by the population. Called when the behaviour
+	 * finishes, the population is not used afterwards.
+	 */
+	void finish();
+}
@@ -0,0 +1,197 @@
+package mimetic.desire.behaviour.ecj;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ec.BreedingPipeline;
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Problem;
+import ec.Subpopulation;
+import ec.util.MersenneTwisterFast;
+
+/**
+ * One evolutionary state shared by the controller populations of all the
+ * agents that use the same parameter file. Each agent owns a {@link Deme}, a
+ * subpopulation of the shared state with its own random stream and its own
+ * copy of the evaluation problem. The parameters, breeder, statistics and
+ * output are set up once instead of once per agent.
+ *
+ * Demes are bred on a pool of <code>breedthreads</code> workers, so the
+ * demes of agents that reach the end of a generation at the same time are bred
+ * in parallel. Each breeding borrows one of the thread slots of the state and
+ * sets its random stream to the stream of the deme. A deme is seeded from the
+ * agent random stream the same way {@link EvoStateFactory} seeds the state of
+ * an agent and is bred the same way as {@link ec.simple.SimpleBreeder} breeds
+ * a single subpopulation without elites, so runs give the same results as with
+ * one state per agent (with one breeding thread each).
+ *
+ * Demes are created when the agents are set up, before any of them breeds.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class SharedEvolution {
+	// the streams of the state are replaced by the streams of the demes, this
+	// only seeds the prototype population which is never evolved
+	private static final int SEED = 1;
+
+	private final EvolutionState state;
+	private final Subpopulation prototype;
+	private int numDemes;
+
+	private final ExecutorService executor;
+	// thread slots of the state not used by a breeding
+	private final BlockingQueue<Integer> threads;
+
+	/**
+	 *
+	 * @param filename
+	 *            the parameter file name in the classpath
+	 * @param overrides
+	 *            parameters that replace the ones in the file, can be null
+	 */
+	public SharedEvolution(String filename, Map<String, String> overrides) {
+		state = EvoStateFactory.initialize(filename, overrides,
+				new MersenneTwisterFast(SEED));
+		state.startFresh();
+
+		prototype = state.population.subpops[0];
+		state.population.subpops = new Subpopulation[1];
+		numDemes = 0;
+
+		int numThreads = Math.max(1, state.breedthreads);
+		threads = new ArrayBlockingQueue<>(numThreads);
+		for (int i = 0; i < numThreads; i++)
+			threads.add(i);
+
+		executor = Executors.newFixedThreadPool(numThreads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "ecj-deme-breeder");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * The shared state, demes are its subpopulations. Its evaluation problem
+	 * is never set up, use {@link Deme#getProblem()}.
+	 */
+	public EvolutionState getState() {
+		return state;
+	}
+
+	public synchronized int getNumDemes() {
+		return numDemes;
+	}
+
+	/**
+	 * Creates the deme of an agent with a random initial population.
+	 *
+	 * @param random
+	 *            the random stream of the agent that owns the deme
+	 * @param lag
+	 *            the breeding lag of the deme, see {@link AsyncBreeder}
+	 */
+	public synchronized Deme createDeme(MersenneTwisterFast random, int lag) {
+		MersenneTwisterFast demeRandom = Evolve
+				.primeGenerator(new MersenneTwisterFast(random.nextInt()));
+
+		// subpopulations grow geometrically, only the first numDemes are used
+		Subpopulation[] subpops = state.population.subpops;
+		if (numDemes == subpops.length) {
+			Subpopulation[] grown = new Subpopulation[subpops.length * 2];
+			System.arraycopy(subpops, 0, grown, 0, numDemes);
+			state.population.subpops = grown;
+		}
+
+		Subpopulation subpop = prototype.emptyClone();
+		int thread = acquire();
+		try {
+			state.random[thread] = demeRandom;
+			subpop.populate(state, thread);
+		} finally {
+			threads.add(thread);
+		}
+
+		int index = numDemes++;
+		state.population.subpops[index] = subpop;
+
+		return new Deme(this, index, demeRandom,
+				(Problem) state.evaluator.p_problem.clone(), lag);
+	}
+
+	/**
+	 * Breeds the next generation of a deme on one of the workers.
+	 */
+	Future<Subpopulation> breed(final int deme,
+			final MersenneTwisterFast random) {
+		return executor.submit(new Callable<Subpopulation>() {
+			@Override
+			public Subpopulation call() throws Exception {
+				int thread = acquire();
+				try {
+					state.random[thread] = random;
+					return breed(deme, thread);
+				} finally {
+					threads.add(thread);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Replaces the subpopulation of a deme by its next generation.
+	 */
+	void swap(int deme, Subpopulation next) {
+		state.population.subpops[deme] = next;
+	}
+
+	/**
+	 * Stops the breeding workers and closes the output of the state.
+	 */
+	public void cleanup() {
+		executor.shutdownNow();
+		Evolve.cleanup(state);
+	}
+
+	/*
+	 * the single threaded subpopulation loop of SimpleBreeder
+	 */
+	private Subpopulation breed(int deme, int thread) {
+		Subpopulation current = state.population.subpops[deme];
+		Subpopulation next = current.emptyClone();
+		Individual[] individuals = next.individuals;
+
+		BreedingPipeline pipeline = (BreedingPipeline) current.species.pipe_prototype
+				.clone();
+		pipeline.prepareToProduce(state, deme, thread);
+		int produced = 0;
+		while (produced < individuals.length)
+			produced += pipeline.produce(1, individuals.length - produced,
+					produced, deme, individuals, state, thread);
+		pipeline.finishProducing(state, deme, thread);
+
+		return next;
+	}
+
+	private int acquire() {
+		try {
+			return threads.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(
+					"Interrupted while waiting for a breeding thread", e);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package mimetic.desire.behaviour.ecj;
+
+import ec.BreedingPipeline;
+import ec.EvolutionState;
+import ec.Individual;
+import ec.Subpopulation;
+import ec.simple.SimpleProblemForm;
+
+/**
+ * Evolves the controller population one individual at a time. When a
+ * controller is used up it is evaluated and its slot is taken by a single
+ * child, bred with the pipeline of the species (tournament selection,
+ * crossover and mutation in our parameter files) from the individuals
+ * evaluated so far. Breeding is spread over the run instead of happening for
+ * the whole population at generation boundaries.
+ *
+ * The problem of the state must be set up before the first replacement.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class SteadyStateBreeder {
+	private final EvolutionState state;
+	private final BreedingPipeline pipeline;
+
+	private final Individual[] child = new Individual[1];
+	private Individual[] parents = new Individual[0];
+
+	/**
+	 *
+	 * @param state
+	 *            a started evolutionary state
+	 */
+	public SteadyStateBreeder(EvolutionState state) {
+		this.state = state;
+		this.pipeline = (BreedingPipeline) state.population.subpops[0].species.pipe_prototype
+				.clone();
+	}
+
+	/**
+	 * Evaluates the individual in a slot of the population and replaces it
+	 * with a new child.
+	 *
+	 * @param slot
+	 *            the slot of the used up individual
+	 * @return the child, not yet evaluated
+	 */
+	public Individual replace(int slot) {
+		Subpopulation subpop = state.population.subpops[0];
+		Individual[] individuals = subpop.individuals;
+
+		((SimpleProblemForm) state.evaluator.p_problem).evaluate(state,
+				individuals[slot], 0, 0);
+
+		// the tournaments only see the evaluated individuals
+		if (parents.length != individuals.length)
+			parents = new Individual[individuals.length];
+		int numParents = 0;
+		for (Individual ind : individuals)
+			if (ind.evaluated)
+				parents[numParents++] = ind;
+
+		Individual[] selectable = new Individual[numParents];
+		System.arraycopy(parents, 0, selectable, 0, numParents);
+
+		subpop.individuals = selectable;
+		try {
+			pipeline.prepareToProduce(state, 0, 0);
+			pipeline.produce(1, 1, 0, 0, child, state, 0);
+			pipeline.finishProducing(state, 0, 0);
+		} finally {
+			subpop.individuals = individuals;
+		}
+
+		Individual offspring = child[0];
+		child[0] = null;
+		offspring.evaluated = false;
+		individuals[slot] = offspring;
+		return offspring;
+	}
+}
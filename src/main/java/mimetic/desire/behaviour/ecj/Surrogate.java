@@ -0,0 +1,174 @@
+package mimetic.desire.behaviour.ecj;
+
+import java.util.Arrays;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.cgp.FitnessCGP;
+import ec.vector.FloatVectorIndividual;
+
+/**
+ * A nearest neighbour model of the controller scores recorded by a behaviour
+ * (mean energy, competition results), used to decide which bred controllers
+ * are worth running in the simulation.
+ *
+ * The genomes and scores of the last controllers that ran are kept in a fixed
+ * size archive, the predicted score of a genome is the mean score of its
+ * <code>k</code> nearest genomes in the archive (euclidean distance over the
+ * genes). Individuals that are not selected for a live run are given their
+ * predicted score as fitness and marked as evaluated.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class Surrogate {
+	public static final int DEFAULT_CAPACITY = 256;
+	public static final int DEFAULT_K = 3;
+
+	private final int k;
+	private final float[][] genomes;
+	private final double[] scores;
+	private int size;
+	private int next;
+
+	// k nearest distances and scores of the current prediction
+	private final double[] nearestDistances;
+	private final double[] nearestScores;
+
+	/**
+	 *
+	 * @param capacity
+	 *            number of scores kept, older scores are replaced first
+	 * @param k
+	 *            number of neighbours of a prediction
+	 */
+	public Surrogate(int capacity, int k) {
+		if (k < 1 || capacity < k)
+			throw new RuntimeException("Invalid surrogate archive: capacity "
+					+ capacity + ", k " + k);
+		this.k = k;
+		genomes = new float[capacity][];
+		scores = new double[capacity];
+		nearestDistances = new double[k];
+		nearestScores = new double[k];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Records the score of an individual that ran in the simulation, NaN
+	 * scores (individuals without records) are ignored.
+	 */
+	public void add(Individual ind, double score) {
+		if (Double.isNaN(score))
+			return;
+
+		float[] genome = ((FloatVectorIndividual) ind).genome;
+		if (genomes[next] == null || genomes[next].length != genome.length)
+			genomes[next] = new float[genome.length];
+		System.arraycopy(genome, 0, genomes[next], 0, genome.length);
+		scores[next] = score;
+
+		next = (next + 1) % genomes.length;
+		size = Math.min(size + 1, genomes.length);
+	}
+
+	/**
+	 * Predicts the score of an individual, NaN if there are no scores yet.
+	 */
+	public double predict(Individual ind) {
+		if (size == 0)
+			return Double.NaN;
+
+		float[] genome = ((FloatVectorIndividual) ind).genome;
+		int found = 0;
+		for (int i = 0; i < size; i++) {
+			double d = distance(genome, genomes[i]);
+
+			// insertion into the sorted k nearest
+			if (found < k)
+				found++;
+			else if (d >= nearestDistances[k - 1])
+				continue;
+			int j = found - 1;
+			for (; j > 0 && nearestDistances[j - 1] > d; j--) {
+				nearestDistances[j] = nearestDistances[j - 1];
+				nearestScores[j] = nearestScores[j - 1];
+			}
+			nearestDistances[j] = d;
+			nearestScores[j] = scores[i];
+		}
+
+		double sum = 0;
+		for (int i = 0; i < found; i++)
+			sum += nearestScores[i];
+		return sum / found;
+	}
+
+	/**
+	 * Chooses the individuals of a new generation that run in the simulation,
+	 * the ones with the best predicted scores. The others get their predicted
+	 * score as fitness. Until the archive holds as many scores as the
+	 * population every individual runs.
+	 *
+	 * @param state
+	 *            the evolutionary state of the individuals
+	 * @param individuals
+	 *            the new generation
+	 * @param fraction
+	 *            fraction of the individuals that run, at least one does
+	 * @param maximize
+	 *            true if higher scores are better
+	 * @return true for the individuals that should run in the simulation
+	 */
+	public boolean[] screen(EvolutionState state, Individual[] individuals,
+			double fraction, boolean maximize) {
+		int n = individuals.length;
+		boolean[] live = new boolean[n];
+		if (size < n || fraction >= 1) {
+			Arrays.fill(live, true);
+			return live;
+		}
+
+		double[] predicted = new double[n];
+		double[] sorted = new double[n];
+		for (int i = 0; i < n; i++) {
+			predicted[i] = maximize ? predict(individuals[i])
+					: -predict(individuals[i]);
+			sorted[i] = predicted[i];
+		}
+		Arrays.sort(sorted);
+
+		int numLive = Math.max(1, (int) Math.ceil(fraction * n));
+		double threshold = sorted[n - numLive];
+
+		int selected = 0;
+		for (int i = 0; i < n && selected < numLive; i++) {
+			if (predicted[i] >= threshold) {
+				live[i] = true;
+				selected++;
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			if (!live[i]) {
+				double score = maximize ? predicted[i] : -predicted[i];
+				((FitnessCGP) individuals[i].fitness).setFitness(state,
+						(float) score, false);
+				individuals[i].evaluated = true;
+			}
+		}
+		return live;
+	}
+
+	private static double distance(float[] a, float[] b) {
+		double d = 0;
+		for (int i = 0; i < a.length; i++) {
+			double diff = a[i] - b[i];
+			d += diff * diff;
+		}
+		return d;
+	}
+}
@@ -0,0 +1,28 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import ec.Individual;
+
+/**
+ * Runs every CGP individual of a population on the same inputs.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public interface CGPBatchEvaluator {
+
+	/**
+	 * Runs all the individuals of a population.
+	 * 
+	 * @param population
+	 *            the individuals to run, all must be CGP individuals
+	 * @param inputs
+	 *            program inputs shared by all the individuals
+	 * @param output
+	 *            the program output to collect
+	 * @param results
+	 *            receives the output of each individual, indexed as the
+	 *            population
+	 */
+	void evaluate(Individual[] population, double[] inputs, int output,
+			double[] results);
+}
@@ -0,0 +1,163 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Several {@link CGPProgram programs} merged into a single program over shared
+ * registers. Nodes that compute the same function of the same registers are
+ * computed once, so subexpressions common to several individuals (frequent in
+ * an evolved population) are shared.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public final class CGPBatchProgram {
+	private final int numInputs;
+	private final int[] opcodes;
+	private final int[] argA;
+	private final int[] argB;
+
+	// outputs[p][o] is the register of output o of program p
+	private final int[][] outputs;
+
+	private CGPBatchProgram(int numInputs, int[] opcodes, int[] argA,
+			int[] argB, int[][] outputs) {
+		this.numInputs = numInputs;
+		this.opcodes = opcodes;
+		this.argA = argA;
+		this.argB = argB;
+		this.outputs = outputs;
+	}
+
+	/**
+	 * Merges programs with the same number of inputs.
+	 */
+	public static CGPBatchProgram merge(CGPProgram[] programs) {
+		int numInputs = programs.length == 0 ? 0 : programs[0].numInputs;
+
+		int maxNodes = 0;
+		for (CGPProgram p : programs) {
+			if (p.numInputs != numInputs)
+				throw new RuntimeException(
+						"Programs with different inputs can't be merged");
+			maxNodes += p.getNumNodes();
+		}
+
+		int[] opcodes = new int[maxNodes];
+		int[] argA = new int[maxNodes];
+		int[] argB = new int[maxNodes];
+		int[][] outputs = new int[programs.length][];
+
+		// register of each distinct node
+		Map<NodeKey, Integer> nodes = new HashMap<>();
+		int numNodes = 0;
+
+		for (int p = 0; p < programs.length; p++) {
+			CGPProgram program = programs[p];
+
+			// register of each program register in the merged program
+			int[] register = new int[program.getNumRegisters()];
+			for (int i = 0; i < numInputs; i++)
+				register[i] = i;
+
+			for (int j = 0; j < program.getNumNodes(); j++) {
+				NodeKey key = new NodeKey(program.opcodes[j],
+						register[program.argA[j]], register[program.argB[j]]);
+				Integer r = nodes.get(key);
+				if (r == null) {
+					r = numInputs + numNodes;
+					opcodes[numNodes] = key.opcode;
+					argA[numNodes] = key.a;
+					argB[numNodes] = key.b;
+					numNodes++;
+					nodes.put(key, r);
+				}
+				register[numInputs + j] = r;
+			}
+
+			outputs[p] = new int[program.outputs.length];
+			for (int o = 0; o < outputs[p].length; o++)
+				outputs[p][o] = register[program.outputs[o]];
+		}
+
+		return new CGPBatchProgram(numInputs,
+				Arrays.copyOf(opcodes, numNodes), Arrays.copyOf(argA, numNodes),
+				Arrays.copyOf(argB, numNodes), outputs);
+	}
+
+	public int getNumNodes() {
+		return opcodes.length;
+	}
+
+	public int getNumRegisters() {
+		return numInputs + opcodes.length;
+	}
+
+	/**
+	 * Runs all the programs.
+	 * 
+	 * @param inputs
+	 *            inputs shared by the programs
+	 * @param registers
+	 *            scratch space with at least {@link #getNumRegisters()}
+	 *            elements
+	 * @param output
+	 *            the output to collect from each program
+	 * @param results
+	 *            receives the output of each program
+	 */
+	public void run(double[] inputs, double[] registers, int output,
+			double[] results) {
+		System.arraycopy(inputs, 0, registers, 0, numInputs);
+
+		int r = numInputs;
+		for (int j = 0; j < opcodes.length; j++, r++) {
+			registers[r] = CGPFunctions.apply(opcodes[j], registers[argA[j]],
+					registers[argB[j]]);
+		}
+
+		for (int p = 0; p < outputs.length; p++)
+			results[p] = registers[outputs[p][output]];
+	}
+
+	/*
+	 * identifies a node by what it computes, the unused argument of unary
+	 * functions is ignored and the arguments of commutative functions are
+	 * sorted
+	 */
+	private static final class NodeKey {
+		final int opcode;
+		final int a;
+		final int b;
+
+		NodeKey(int opcode, int a, int b) {
+			this.opcode = opcode;
+			if (CGPFunctions.arity(opcode) == 1) {
+				this.a = a;
+				this.b = a;
+			} else if ((opcode == CGPFunctions.ADD || opcode == CGPFunctions.MUL)
+					&& b < a) {
+				this.a = b;
+				this.b = a;
+			} else {
+				this.a = a;
+				this.b = b;
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof NodeKey))
+				return false;
+			NodeKey other = (NodeKey) obj;
+			return opcode == other.opcode && a == other.a && b == other.b;
+		}
+
+		@Override
+		public int hashCode() {
+			return (opcode * 31 + a) * 31 + b;
+		}
+	}
+}
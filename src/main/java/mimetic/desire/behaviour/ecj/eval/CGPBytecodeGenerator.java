@@ -0,0 +1,402 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates a JVM class for a {@link CGPProgram}. The generated
+ * {@link CGPBytecodeProgram#run(double[], double[])} is straight line code:
+ * the inputs are loaded into local variables, each node (only the active
+ * nodes are compiled) is computed into its own local and the outputs are
+ * stored, so the JIT can compile the whole program as a single expression.
+ * Division, comparison and sine call the static methods in
+ * {@link CGPFunctions} and {@link Math}, the generated code has no branches.
+ *
+ * Each class is defined by its own class loader so it can be unloaded when
+ * the program is no longer used. Generated programs are cached by the decoded
+ * program, agents running individuals with the same program share one class.
+ * The cache only holds weak references.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class CGPBytecodeGenerator {
+	private static final String PACKAGE = "mimetic/desire/behaviour/ecj/eval/";
+	private static final String INTERFACE = PACKAGE + "CGPBytecodeProgram";
+	private static final String FUNCTIONS = PACKAGE + "CGPFunctions";
+	private static final String OBJECT = "java/lang/Object";
+
+	// the code of a method can not be longer than this
+	private static final int MAX_CODE_LENGTH = 65535;
+
+	private static final AtomicLong classes = new AtomicLong();
+
+	private static final ConcurrentMap<CGPProgram, ProgramReference> cache = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<CGPBytecodeProgram> collected = new ReferenceQueue<>();
+
+	private CGPBytecodeGenerator() {
+	}
+
+	/**
+	 * Returns the generated class instance for a program, generating it if no
+	 * agent is using an equivalent program. Returns null if the program is too
+	 * large for a single method.
+	 *
+	 * @param program
+	 *            the program to generate
+	 */
+	public static CGPBytecodeProgram get(CGPProgram program) {
+		expunge();
+
+		ProgramReference ref = cache.get(program);
+		CGPBytecodeProgram generated = ref == null ? null : ref.get();
+		if (generated == null) {
+			generated = generate(program);
+			if (generated != null)
+				cache.put(program, new ProgramReference(program, generated,
+						collected));
+		}
+		return generated;
+	}
+
+	/**
+	 * Number of programs in the cache, including the ones that were collected
+	 * but not removed yet.
+	 */
+	public static int getCacheSize() {
+		return cache.size();
+	}
+
+	// removes the cache entries of programs that were garbage collected
+	private static void expunge() {
+		ProgramReference ref;
+		while ((ref = (ProgramReference) collected.poll()) != null)
+			cache.remove(ref.key, ref);
+	}
+
+	/**
+	 * Generates and loads a new class for a program.
+	 *
+	 * @return an instance of the generated class or null if the program is
+	 *         too large for a single method
+	 */
+	public static CGPBytecodeProgram generate(CGPProgram program) {
+		String name = PACKAGE + "GeneratedProgram" + classes.incrementAndGet();
+
+		byte[] bytes;
+		try {
+			bytes = new ClassWriter(name, program).toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't generate the CGP program", e);
+		}
+		if (bytes == null)
+			return null;
+
+		try {
+			Class<?> c = new ProgramClassLoader().define(name.replace('/', '.'),
+					bytes);
+			return (CGPBytecodeProgram) c.newInstance();
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new RuntimeException("Couldn't load the CGP program", e);
+		}
+	}
+
+	private static class ProgramReference extends
+			WeakReference<CGPBytecodeProgram> {
+		final CGPProgram key;
+
+		ProgramReference(CGPProgram key, CGPBytecodeProgram program,
+				ReferenceQueue<CGPBytecodeProgram> queue) {
+			super(program, queue);
+			this.key = key;
+		}
+	}
+
+	/*
+	 * defines a single class, generated classes can only see the classes of
+	 * this package that are public
+	 */
+	private static class ProgramClassLoader extends ClassLoader {
+		ProgramClassLoader() {
+			super(CGPBytecodeGenerator.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/*
+	 * writes the class file, see chapter 4 of the JVM specification
+	 */
+	private static class ClassWriter {
+		private static final int CLASS_VERSION = 50;
+
+		private static final int ACC_PUBLIC = 0x0001;
+		private static final int ACC_FINAL = 0x0010;
+		private static final int ACC_SUPER = 0x0020;
+
+		private static final int CONSTANT_UTF8 = 1;
+		private static final int CONSTANT_CLASS = 7;
+		private static final int CONSTANT_METHODREF = 10;
+		private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+		private static final int ICONST_0 = 0x03;
+		private static final int BIPUSH = 0x10;
+		private static final int SIPUSH = 0x11;
+		private static final int DLOAD = 0x18;
+		private static final int ALOAD_0 = 0x2a;
+		private static final int ALOAD_1 = 0x2b;
+		private static final int ALOAD_2 = 0x2c;
+		private static final int DALOAD = 0x31;
+		private static final int DSTORE = 0x39;
+		private static final int DASTORE = 0x52;
+		private static final int DADD = 0x63;
+		private static final int DSUB = 0x67;
+		private static final int DMUL = 0x6b;
+		private static final int RETURN = 0xb1;
+		private static final int INVOKESPECIAL = 0xb7;
+		private static final int INVOKESTATIC = 0xb8;
+		private static final int WIDE = 0xc4;
+
+		// locals 0, 1 and 2 are this, inputs and outputs
+		private static final int FIRST_REGISTER = 3;
+
+		private final String name;
+		private final CGPProgram program;
+
+		private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		private final DataOutputStream poolOut = new DataOutputStream(pool);
+		private final Map<String, Integer> constants = new HashMap<>();
+		private int poolSize = 1;
+
+		ClassWriter(String name, CGPProgram program) {
+			this.name = name;
+			this.program = program;
+		}
+
+		byte[] toByteArray() throws IOException {
+			int thisClass = classConstant(name);
+			int superClass = classConstant(OBJECT);
+			int iface = classConstant(INTERFACE);
+			int code = utf8("Code");
+
+			byte[] init = initCode();
+			int initName = utf8("<init>");
+			int initDesc = utf8("()V");
+
+			byte[] run = runCode();
+			if (run == null)
+				return null;
+			int runName = utf8("run");
+			int runDesc = utf8("([D[D)V");
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(CLASS_VERSION);
+			out.writeShort(poolSize);
+			poolOut.flush();
+			pool.writeTo(out);
+
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(iface);
+
+			// no fields
+			out.writeShort(0);
+
+			out.writeShort(2);
+			writeMethod(out, initName, initDesc, code, 1, 1, init);
+			writeMethod(out, runName, runDesc, code, 4, FIRST_REGISTER + 2
+					* program.getNumRegisters(), run);
+
+			// no class attributes
+			out.writeShort(0);
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		private void writeMethod(DataOutputStream out, int name, int desc,
+				int codeAttribute, int maxStack, int maxLocals, byte[] code)
+				throws IOException {
+			out.writeShort(ACC_PUBLIC);
+			out.writeShort(name);
+			out.writeShort(desc);
+			out.writeShort(1);
+
+			out.writeShort(codeAttribute);
+			out.writeInt(12 + code.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.length);
+			out.write(code);
+			// no exception table and no code attributes
+			out.writeShort(0);
+			out.writeShort(0);
+		}
+
+		private byte[] initCode() throws IOException {
+			int objectInit = methodConstant(OBJECT, "<init>", "()V");
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream code = new DataOutputStream(bytes);
+			code.writeByte(ALOAD_0);
+			code.writeByte(INVOKESPECIAL);
+			code.writeShort(objectInit);
+			code.writeByte(RETURN);
+			return bytes.toByteArray();
+		}
+
+		private byte[] runCode() throws IOException {
+			int div = methodConstant(FUNCTIONS, "div", "(DD)D");
+			int cmp = methodConstant(FUNCTIONS, "cmp", "(DD)D");
+			int sin = methodConstant("java/lang/Math", "sin", "(D)D");
+
+			int numInputs = program.numInputs;
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream code = new DataOutputStream(bytes);
+
+			for (int i = 0; i < numInputs; i++) {
+				code.writeByte(ALOAD_1);
+				pushInt(code, i);
+				code.writeByte(DALOAD);
+				local(code, DSTORE, i);
+			}
+
+			for (int j = 0; j < program.opcodes.length; j++) {
+				int r = numInputs + j;
+				int opcode = program.opcodes[j];
+				local(code, DLOAD, program.argA[j]);
+				if (CGPFunctions.arity(opcode) > 1)
+					local(code, DLOAD, program.argB[j]);
+
+				switch (opcode) {
+				case CGPFunctions.ADD:
+					code.writeByte(DADD);
+					break;
+				case CGPFunctions.SUB:
+					code.writeByte(DSUB);
+					break;
+				case CGPFunctions.MUL:
+					code.writeByte(DMUL);
+					break;
+				case CGPFunctions.DIV:
+					code.writeByte(INVOKESTATIC);
+					code.writeShort(div);
+					break;
+				case CGPFunctions.SIN:
+					code.writeByte(INVOKESTATIC);
+					code.writeShort(sin);
+					break;
+				default:
+					code.writeByte(INVOKESTATIC);
+					code.writeShort(cmp);
+				}
+				local(code, DSTORE, r);
+			}
+
+			for (int o = 0; o < program.outputs.length; o++) {
+				code.writeByte(ALOAD_2);
+				pushInt(code, o);
+				local(code, DLOAD, program.outputs[o]);
+				code.writeByte(DASTORE);
+			}
+			code.writeByte(RETURN);
+
+			if (bytes.size() > MAX_CODE_LENGTH)
+				return null;
+			return bytes.toByteArray();
+		}
+
+		// loads or stores the local variable holding a register
+		private void local(DataOutputStream code, int opcode, int register)
+				throws IOException {
+			int slot = FIRST_REGISTER + 2 * register;
+			if (slot <= 0xff) {
+				code.writeByte(opcode);
+				code.writeByte(slot);
+			} else {
+				code.writeByte(WIDE);
+				code.writeByte(opcode);
+				code.writeShort(slot);
+			}
+		}
+
+		private void pushInt(DataOutputStream code, int value)
+				throws IOException {
+			if (value <= 5) {
+				code.writeByte(ICONST_0 + value);
+			} else if (value <= Byte.MAX_VALUE) {
+				code.writeByte(BIPUSH);
+				code.writeByte(value);
+			} else {
+				code.writeByte(SIPUSH);
+				code.writeShort(value);
+			}
+		}
+
+		private int utf8(String value) throws IOException {
+			String key = "U" + value;
+			Integer index = constants.get(key);
+			if (index == null) {
+				poolOut.writeByte(CONSTANT_UTF8);
+				poolOut.writeUTF(value);
+				index = add(key);
+			}
+			return index;
+		}
+
+		private int classConstant(String className) throws IOException {
+			String key = "C" + className;
+			Integer index = constants.get(key);
+			if (index == null) {
+				int nameIndex = utf8(className);
+				poolOut.writeByte(CONSTANT_CLASS);
+				poolOut.writeShort(nameIndex);
+				index = add(key);
+			}
+			return index;
+		}
+
+		private int methodConstant(String owner, String method,
+				String descriptor) throws IOException {
+			String key = "M" + owner + "." + method + descriptor;
+			Integer index = constants.get(key);
+			if (index == null) {
+				int ownerIndex = classConstant(owner);
+				int methodName = utf8(method);
+				int methodDesc = utf8(descriptor);
+
+				poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+				poolOut.writeShort(methodName);
+				poolOut.writeShort(methodDesc);
+				int nameAndType = add("N" + method + descriptor + poolSize);
+
+				poolOut.writeByte(CONSTANT_METHODREF);
+				poolOut.writeShort(ownerIndex);
+				poolOut.writeShort(nameAndType);
+				index = add(key);
+			}
+			return index;
+		}
+
+		private int add(String key) {
+			int index = poolSize++;
+			constants.put(key, index);
+			return index;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+/**
+ * A CGP program generated as a JVM class by {@link CGPBytecodeGenerator}.
+ * Generated programs keep their registers in local variables so, unlike
+ * {@link CGPProgram}, they need no scratch space and can be shared between
+ * threads.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public interface CGPBytecodeProgram {
+
+	/**
+	 * Runs the program.
+	 * 
+	 * @param inputs
+	 *            program inputs
+	 * @param outputs
+	 *            receives the program outputs
+	 */
+	void run(double[] inputs, double[] outputs);
+}
@@ -0,0 +1,199 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.cgp.genome.CGPIndividual;
+import ec.util.Parameter;
+
+/**
+ * Decodes CGP genomes into {@link CGPProgram programs}. Genomes use the float
+ * encoding of the CGP species: each node has a function gene followed by
+ * {@link CGPFunctions#MAX_ARITY} input genes and the genome ends with one gene
+ * per output. A gene g in [0,1] selects floor(g * n) out of its n possible
+ * values, node j can read any input or any node before it and outputs can
+ * read any input or node.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class CGPCompiler {
+	public static final String SPECIES = "pop.subpop.0.species";
+
+	// genes per node, the function followed by its inputs
+	private static final int NODE_GENES = CGPFunctions.MAX_ARITY + 1;
+
+	private final int numInputs;
+	private final int numNodes;
+	private final int numOutputs;
+
+	/**
+	 * 
+	 * @param numInputs
+	 *            number of program inputs
+	 * @param numNodes
+	 *            number of nodes in the genome
+	 * @param numOutputs
+	 *            number of program outputs
+	 */
+	public CGPCompiler(int numInputs, int numNodes, int numOutputs) {
+		this.numInputs = numInputs;
+		this.numNodes = numNodes;
+		this.numOutputs = numOutputs;
+	}
+
+	/**
+	 * Creates a compiler for the individuals of the first subpopulation of an
+	 * evolutionary state.
+	 */
+	public static CGPCompiler forState(EvolutionState state) {
+		return new CGPCompiler(getSpeciesInt(state, "num-inputs"),
+				getSpeciesInt(state, "num-nodes"), getSpeciesInt(state,
+						"num-outputs"));
+	}
+
+	private static int getSpeciesInt(EvolutionState state, String name) {
+		Parameter parameter = new Parameter(SPECIES).push(name);
+		// ECJ returns a value below the minimum if the parameter is missing
+		int value = state.parameters.getInt(parameter, null, 1);
+		if (value < 1)
+			throw new RuntimeException(
+					"Missing or invalid CGP species parameter " + SPECIES
+							+ "." + name);
+		return value;
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	/**
+	 * Length of the genomes this compiler decodes.
+	 */
+	public int getGenomeLength() {
+		return numNodes * NODE_GENES + numOutputs;
+	}
+
+	/**
+	 * Decodes a genome into a program with only its active nodes, the nodes
+	 * that an output reads directly or through other nodes. Active nodes keep
+	 * their order in the genome, which is a valid evaluation order since
+	 * nodes only read the nodes before them.
+	 */
+	public CGPProgram compile(float[] genome) {
+		checkLength(genome);
+
+		boolean[] active = activeNodes(genome);
+		int numActive = 0;
+		for (int j = 0; j < numNodes; j++)
+			if (active[j])
+				numActive++;
+
+		// register of each input and active node in the compiled program
+		int[] register = new int[numInputs + numNodes];
+		for (int i = 0; i < numInputs; i++)
+			register[i] = i;
+
+		int[] opcodes = new int[numActive];
+		int[] argA = new int[numActive];
+		int[] argB = new int[numActive];
+		int[] outputs = new int[numOutputs];
+
+		int k = 0;
+		for (int j = 0; j < numNodes; j++) {
+			if (!active[j])
+				continue;
+			int g = j * NODE_GENES;
+			int sources = numInputs + j;
+			opcodes[k] = function(genome, j);
+			argA[k] = register[decode(genome[g + 1], sources)];
+			argB[k] = register[decode(genome[g + 2], sources)];
+			register[numInputs + j] = numInputs + k;
+			k++;
+		}
+
+		int g = numNodes * NODE_GENES;
+		for (int o = 0; o < numOutputs; o++)
+			outputs[o] = register[decode(genome[g + o], numInputs + numNodes)];
+
+		return new CGPProgram(numInputs, numNodes, opcodes, argA, argB,
+				outputs, genome.clone());
+	}
+
+	/**
+	 * Marks the nodes of a genome that contribute to the outputs.
+	 */
+	public boolean[] activeNodes(float[] genome) {
+		checkLength(genome);
+
+		boolean[] active = new boolean[numNodes];
+		int g = numNodes * NODE_GENES;
+		for (int o = 0; o < numOutputs; o++) {
+			int source = decode(genome[g + o], numInputs + numNodes);
+			if (source >= numInputs)
+				active[source - numInputs] = true;
+		}
+
+		// nodes only read the nodes before them, one backwards pass is enough
+		for (int j = numNodes - 1; j >= 0; j--) {
+			if (!active[j])
+				continue;
+			int sources = numInputs + j;
+			int a = decode(genome[j * NODE_GENES + 1], sources);
+			if (a >= numInputs)
+				active[a - numInputs] = true;
+			if (CGPFunctions.arity(function(genome, j)) > 1) {
+				int b = decode(genome[j * NODE_GENES + 2], sources);
+				if (b >= numInputs)
+					active[b - numInputs] = true;
+			}
+		}
+		return active;
+	}
+
+	/**
+	 * Mean fraction of active nodes in the genomes of a population.
+	 */
+	public double getActiveNodeRatio(Individual[] population) {
+		if (population.length == 0)
+			return 0;
+
+		double sum = 0;
+		for (Individual ind : population) {
+			boolean[] active = activeNodes(((CGPIndividual) ind).genome);
+			int count = 0;
+			for (boolean a : active)
+				if (a)
+					count++;
+			sum += (double) count / numNodes;
+		}
+		return sum / population.length;
+	}
+
+	private int function(float[] genome, int node) {
+		return decode(genome[node * NODE_GENES], CGPFunctions.NUM_FUNCTIONS);
+	}
+
+	private void checkLength(float[] genome) {
+		if (genome.length != getGenomeLength())
+			throw new RuntimeException("Expected a genome with "
+					+ getGenomeLength() + " genes, found " + genome.length);
+	}
+
+	// maps a gene in [0,1] to one of n values
+	static int decode(float gene, int n) {
+		int v = (int) (gene * n);
+		if (v >= n)
+			return n - 1;
+		if (v < 0)
+			return 0;
+		return v;
+	}
+}
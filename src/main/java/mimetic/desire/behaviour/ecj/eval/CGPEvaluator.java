@@ -0,0 +1,24 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import ec.cgp.genome.CGPIndividual;
+
+/**
+ * Runs CGP individuals on primitive inputs.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public interface CGPEvaluator {
+
+	/**
+	 * Runs an individual.
+	 * 
+	 * @param ind
+	 *            the individual to run
+	 * @param inputs
+	 *            program inputs
+	 * @param outputs
+	 *            receives the program outputs
+	 */
+	void evaluate(CGPIndividual ind, double[] inputs, double[] outputs);
+}
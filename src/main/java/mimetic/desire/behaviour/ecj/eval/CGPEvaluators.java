@@ -0,0 +1,53 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import mimetic.desire.MimeticDesire;
+import ec.EvolutionState;
+
+/**
+ * Creates the {@link CGPEvaluator} used to run the individuals of an
+ * evolutionary state.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public final class CGPEvaluators {
+
+	private CGPEvaluators() {
+	}
+
+	/**
+	 * 
+	 * @param state
+	 *            the evolutionary state with the CGP species parameters
+	 * @param model
+	 *            the model, selects compiled programs or the CGP interpreter
+	 *            (see {@link MimeticDesire#compiledControllers}) and when to
+	 *            generate classes for hot programs
+	 */
+	public static CGPEvaluator forState(EvolutionState state,
+			MimeticDesire model) {
+		CGPCompiler compiler = CGPCompiler.forState(state);
+		if (model.compiledControllers)
+			return new CompiledCGPEvaluator(compiler,
+					model.hotProgramThreshold);
+		return new InterpretedCGPEvaluator(compiler.getNumInputs());
+	}
+
+	/**
+	 * Creates an evaluator that runs whole populations, compiled populations
+	 * are merged into a single program.
+	 * 
+	 * @param state
+	 *            the evolutionary state with the CGP species parameters
+	 * @param model
+	 *            the model, selects compiled programs or the CGP interpreter
+	 */
+	public static CGPBatchEvaluator batchForState(EvolutionState state,
+			MimeticDesire model) {
+		CGPCompiler compiler = CGPCompiler.forState(state);
+		if (model.compiledControllers)
+			return new SharedCGPBatchEvaluator(compiler);
+		return new SequentialCGPBatchEvaluator(new InterpretedCGPEvaluator(
+				compiler.getNumInputs()), compiler.getNumOutputs());
+	}
+}
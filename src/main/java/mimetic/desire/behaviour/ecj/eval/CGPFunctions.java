@@ -0,0 +1,69 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import mimetic.desire.behaviour.ecj.functions.Movement;
+
+/**
+ * Primitive versions of the functions in the {@link Movement} function set.
+ * The opcodes follow the order in which {@link Movement} loads the functions,
+ * which is the index encoded in the function genes.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public final class CGPFunctions {
+	public static final int ADD = 0;
+	public static final int SUB = 1;
+	public static final int MUL = 2;
+	public static final int DIV = 3;
+	public static final int SIN = 4;
+	public static final int CMP = 5;
+
+	public static final int NUM_FUNCTIONS = 6;
+
+	// number of arguments of each function indexed by opcode
+	private static final int[] ARITY = { 2, 2, 2, 2, 1, 2 };
+
+	public static final int MAX_ARITY = 2;
+
+	private CGPFunctions() {
+	}
+
+	public static int arity(int opcode) {
+		return ARITY[opcode];
+	}
+
+	/**
+	 * Protected division, returns 1 when dividing by 0.
+	 */
+	public static double div(double a, double b) {
+		return b == 0 ? 1 : a / b;
+	}
+
+	/**
+	 * Returns 1 if a is greater than b, -1 if it is smaller and 0 otherwise.
+	 */
+	public static double cmp(double a, double b) {
+		return a > b ? 1 : (a < b ? -1 : 0);
+	}
+
+	/**
+	 * Applies a function to its arguments, b is ignored by unary functions.
+	 */
+	public static double apply(int opcode, double a, double b) {
+		switch (opcode) {
+		case ADD:
+			return a + b;
+		case SUB:
+			return a - b;
+		case MUL:
+			return a * b;
+		case DIV:
+			return div(a, b);
+		case SIN:
+			return Math.sin(a);
+		case CMP:
+			return cmp(a, b);
+		}
+		throw new RuntimeException("Unknown CGP function: " + opcode);
+	}
+}
@@ -0,0 +1,149 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import java.util.Arrays;
+
+/**
+ * A CGP genome decoded into a flat program. Node j reads its arguments from
+ * registers argA[j] and argB[j] and writes its result to register
+ * numInputs + j, the first numInputs registers hold the program inputs.
+ * 
+ * Programs are immutable and can be shared, the registers belong to the
+ * caller.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public final class CGPProgram {
+	final int numInputs;
+	// number of nodes in the genome, active or not
+	final int numGenomeNodes;
+	final int[] opcodes;
+	final int[] argA;
+	final int[] argB;
+	final int[] outputs;
+
+	// genome this program was compiled from, used to detect mutations
+	private final float[] genome;
+
+	CGPProgram(int numInputs, int numGenomeNodes, int[] opcodes, int[] argA,
+			int[] argB, int[] outputs, float[] genome) {
+		this.numInputs = numInputs;
+		this.numGenomeNodes = numGenomeNodes;
+		this.opcodes = opcodes;
+		this.argA = argA;
+		this.argB = argB;
+		this.outputs = outputs;
+		this.genome = genome;
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	/**
+	 * Number of nodes in the program, only the active nodes of the genome are
+	 * compiled.
+	 */
+	public int getNumNodes() {
+		return opcodes.length;
+	}
+
+	/**
+	 * Fraction of the genome nodes that are active.
+	 */
+	public double getActiveNodeRatio() {
+		return numGenomeNodes == 0 ? 0 : (double) opcodes.length
+				/ numGenomeNodes;
+	}
+
+	public int getNumOutputs() {
+		return outputs.length;
+	}
+
+	/**
+	 * Number of registers needed to run this program.
+	 */
+	public int getNumRegisters() {
+		return numInputs + opcodes.length;
+	}
+
+	/**
+	 * Returns true if this program was compiled from the given genome.
+	 */
+	public boolean matches(float[] genome) {
+		return Arrays.equals(this.genome, genome);
+	}
+
+	/*
+	 * programs are equal if they compute the same thing, regardless of the
+	 * genome they were decoded from
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CGPProgram))
+			return false;
+		CGPProgram other = (CGPProgram) obj;
+		return numInputs == other.numInputs
+				&& Arrays.equals(opcodes, other.opcodes)
+				&& Arrays.equals(argA, other.argA)
+				&& Arrays.equals(argB, other.argB)
+				&& Arrays.equals(outputs, other.outputs);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = numInputs;
+		hash = 31 * hash + Arrays.hashCode(opcodes);
+		hash = 31 * hash + Arrays.hashCode(argA);
+		hash = 31 * hash + Arrays.hashCode(argB);
+		hash = 31 * hash + Arrays.hashCode(outputs);
+		return hash;
+	}
+
+	/**
+	 * Runs the program.
+	 * 
+	 * @param inputs
+	 *            program inputs
+	 * @param registers
+	 *            scratch space with at least {@link #getNumRegisters()}
+	 *            elements
+	 * @param out
+	 *            receives the program outputs
+	 */
+	public void run(double[] inputs, double[] registers, double[] out) {
+		System.arraycopy(inputs, 0, registers, 0, numInputs);
+
+		int r = numInputs;
+		for (int j = 0; j < opcodes.length; j++, r++) {
+			double a = registers[argA[j]];
+			double b = registers[argB[j]];
+			double v;
+			switch (opcodes[j]) {
+			case CGPFunctions.ADD:
+				v = a + b;
+				break;
+			case CGPFunctions.SUB:
+				v = a - b;
+				break;
+			case CGPFunctions.MUL:
+				v = a * b;
+				break;
+			case CGPFunctions.DIV:
+				v = CGPFunctions.div(a, b);
+				break;
+			case CGPFunctions.SIN:
+				v = Math.sin(a);
+				break;
+			default:
+				v = CGPFunctions.cmp(a, b);
+			}
+			registers[r] = v;
+		}
+
+		for (int o = 0; o < outputs.length; o++)
+			out[o] = registers[outputs[o]];
+	}
+}
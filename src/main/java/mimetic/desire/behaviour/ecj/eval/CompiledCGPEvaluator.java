@@ -0,0 +1,105 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import ec.cgp.genome.CGPIndividual;
+
+/**
+ * Evaluates individuals with {@link CGPProgram compiled programs}. Programs are
+ * cached per individual and compiled again when the genome of the individual
+ * changes (e.g. when it is mutated in place). Individuals that are no longer
+ * referenced by the population are dropped from the cache. Vector individuals
+ * compare by genome so individuals with the same genome share a program.
+ * 
+ * The cache is only searched (which hashes the genome) when the evaluator
+ * runs a different individual than in the previous call. Behaviours run the
+ * same controller for many steps, for those the program is found with a
+ * single reference comparison, so an individual must not be mutated in place
+ * between two consecutive runs.
+ * 
+ * Programs that run more than a given number of times are promoted to a
+ * generated class, see {@link CGPBytecodeGenerator}.
+ * 
+ * An evaluator keeps its own registers so it should not be shared between
+ * threads, each agent behaviour owns one.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class CompiledCGPEvaluator implements CGPEvaluator {
+	private final CGPCompiler compiler;
+	private final Map<CGPIndividual, Entry> programs = new WeakHashMap<>();
+	private final double[] registers;
+
+	// the individual of the previous run and its program
+	private CGPIndividual lastInd;
+	private Entry lastEntry;
+
+	// runs before a program is generated as a class, 0 never generates
+	private final int hotThreshold;
+
+	public CompiledCGPEvaluator(CGPCompiler compiler) {
+		this(compiler, 0);
+	}
+
+	/**
+	 * 
+	 * @param compiler
+	 *            compiler for the individuals this evaluator runs
+	 * @param hotThreshold
+	 *            number of runs after which a program is generated as a
+	 *            class, 0 to always use the compiled programs
+	 */
+	public CompiledCGPEvaluator(CGPCompiler compiler, int hotThreshold) {
+		this.compiler = compiler;
+		this.hotThreshold = hotThreshold;
+		this.registers = new double[compiler.getNumInputs()
+				+ compiler.getNumNodes()];
+	}
+
+	private Entry getEntry(CGPIndividual ind) {
+		if (ind == lastInd)
+			return lastEntry;
+
+		Entry entry = programs.get(ind);
+		if (entry == null || !entry.program.matches(ind.genome)) {
+			entry = new Entry(compiler.compile(ind.genome));
+			programs.put(ind, entry);
+		}
+		lastInd = ind;
+		lastEntry = entry;
+		return entry;
+	}
+
+	/**
+	 * Returns the program of an individual, compiling it if needed.
+	 */
+	public CGPProgram getProgram(CGPIndividual ind) {
+		return getEntry(ind).program;
+	}
+
+	@Override
+	public void evaluate(CGPIndividual ind, double[] inputs, double[] outputs) {
+		Entry entry = getEntry(ind);
+		if (entry.generated != null) {
+			entry.generated.run(inputs, outputs);
+			return;
+		}
+
+		entry.program.run(inputs, registers, outputs);
+
+		if (hotThreshold > 0 && ++entry.runs == hotThreshold)
+			entry.generated = CGPBytecodeGenerator.get(entry.program);
+	}
+
+	private static class Entry {
+		final CGPProgram program;
+		CGPBytecodeProgram generated;
+		int runs;
+
+		Entry(CGPProgram program) {
+			this.program = program;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import ec.cgp.eval.CGPSteppableInterpreter;
+import ec.cgp.genome.CGPIndividual;
+
+/**
+ * Evaluates individuals with the {@link CGPSteppableInterpreter} of the CGP
+ * library, boxing the inputs and outputs.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class InterpretedCGPEvaluator implements CGPEvaluator {
+	private final CGPSteppableInterpreter interpreter = new CGPSteppableInterpreter();
+	private final Object[] boxedInputs;
+
+	/**
+	 * 
+	 * @param numInputs
+	 *            number of program inputs
+	 */
+	public InterpretedCGPEvaluator(int numInputs) {
+		this.boxedInputs = new Object[numInputs];
+	}
+
+	@Override
+	public void evaluate(CGPIndividual ind, double[] inputs, double[] outputs) {
+		for (int i = 0; i < boxedInputs.length; i++)
+			boxedInputs[i] = inputs[i];
+
+		interpreter.load(ind);
+		while (!interpreter.finished()) {
+			interpreter.step(boxedInputs);
+		}
+
+		Object[] result = interpreter.getOutput();
+		for (int o = 0; o < outputs.length; o++)
+			outputs[o] = (double) result[o];
+	}
+}
@@ -0,0 +1,37 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import ec.Individual;
+import ec.cgp.genome.CGPIndividual;
+
+/**
+ * Runs the individuals of a population one at a time with a
+ * {@link CGPEvaluator}.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class SequentialCGPBatchEvaluator implements CGPBatchEvaluator {
+	private final CGPEvaluator evaluator;
+	private final double[] outputs;
+
+	/**
+	 * 
+	 * @param evaluator
+	 *            evaluator used for each individual
+	 * @param numOutputs
+	 *            number of program outputs
+	 */
+	public SequentialCGPBatchEvaluator(CGPEvaluator evaluator, int numOutputs) {
+		this.evaluator = evaluator;
+		this.outputs = new double[numOutputs];
+	}
+
+	@Override
+	public void evaluate(Individual[] population, double[] inputs, int output,
+			double[] results) {
+		for (int i = 0; i < population.length; i++) {
+			evaluator.evaluate((CGPIndividual) population[i], inputs, outputs);
+			results[i] = outputs[output];
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import ec.Individual;
+import ec.cgp.genome.CGPIndividual;
+
+/**
+ * Runs a population as a single {@link CGPBatchProgram}, sharing the nodes
+ * that several individuals compute. The merged program is only built again
+ * when an individual in the population changes.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class SharedCGPBatchEvaluator implements CGPBatchEvaluator {
+	private final CompiledCGPEvaluator compiled;
+
+	private CGPProgram[] programs = new CGPProgram[0];
+	private CGPBatchProgram batch;
+	private double[] registers;
+
+	public SharedCGPBatchEvaluator(CGPCompiler compiler) {
+		this.compiled = new CompiledCGPEvaluator(compiler);
+	}
+
+	/**
+	 * Returns the merged program for a population, merging it again if any
+	 * of the individual programs changed.
+	 */
+	public CGPBatchProgram getBatchProgram(Individual[] population) {
+		boolean changed = batch == null || programs.length != population.length;
+		if (programs.length != population.length)
+			programs = new CGPProgram[population.length];
+
+		for (int i = 0; i < population.length; i++) {
+			CGPProgram p = compiled.getProgram((CGPIndividual) population[i]);
+			if (p != programs[i]) {
+				programs[i] = p;
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			batch = CGPBatchProgram.merge(programs);
+			if (registers == null
+					|| registers.length < batch.getNumRegisters())
+				registers = new double[batch.getNumRegisters()];
+		}
+		return batch;
+	}
+
+	@Override
+	public void evaluate(Individual[] population, double[] inputs, int output,
+			double[] results) {
+		getBatchProgram(population).run(inputs, registers, output, results);
+	}
+}
@@ -1,6 +1,6 @@
 package mimetic.desire.behaviour.ecj.functions;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import ec.cgp.functions.AbstractFunctionSet;
@@ -33,9 +33,11 @@ public class Movement extends AbstractFunctionSet<Double> {
 		return Double.class;
 	}
 
+	// the function genes index the functions in the order they are added, this
+	// must match the opcodes in CGPFunctions used by the compiled programs
 	@Override
 	protected Set<Function<Double>> loadFunctions() {
-		Set<Function<Double>> functions = new HashSet<>();
+		Set<Function<Double>> functions = new LinkedHashSet<>();
 
 		functions.add(new AddFn());
 		functions.add(new SubFn());
@@ -1,11 +1,8 @@
 package mimetic.desire.behaviour.ecj.problems;
 
-import java.util.ArrayList;
-
 import mimetic.desire.behaviour.FitnessBehaviour;
 import mimetic.desire.behaviour.SocialFitnessBehaviour;
-
-import org.apache.commons.math3.stat.descriptive.moment.GeometricMean;
+import mimetic.desire.util.StreamingStatistics;
 
 import sim.util.Double2D;
 import ec.EvolutionState;
@@ -28,10 +25,14 @@ public class FitnessExploitation extends AbstractEvoBehaviourProblem {
 	public void evaluate(EvolutionState state, Individual ind,
 			int subpopulation, int threadnum) {
 
-		ArrayList<Double> fitnessProgression = ((FitnessBehaviour) super.behaviour)
+		// individuals scored by look-ahead rollouts keep their fitness
+		if (ind.evaluated)
+			return;
+
+		StreamingStatistics fitnessProgression = ((FitnessBehaviour) super.behaviour)
 				.getFitnessProgressionRecords((CGPIndividual) ind);
 
-		ArrayList<Double> fitnessR = ((SocialFitnessBehaviour) super.behaviour)
+		StreamingStatistics fitnessR = ((SocialFitnessBehaviour) super.behaviour)
 				.getFitnessRecord((CGPIndividual) ind);
 
 		if (fitnessProgression == null) {
@@ -41,20 +42,8 @@ public class FitnessExploitation extends AbstractEvoBehaviourProblem {
 			double fithessProg = 0;
 			float fitnessV = 0;
 
-			double[] progressions = new double[fitnessProgression.size()];
-
 			// geometric mean is more appropriate to measure rates of growth
-			GeometricMean progMean = new GeometricMean();
-
-			// fithessProg =
-			// progMean.evaluate(fitnessProgression.<Double>toArray(progressions));
-
-			int i = 0;
-			for (Double f : fitnessR) {
-				progressions[i++] = f;
-			}
-
-			fithessProg = progMean.evaluate(progressions);
+			fithessProg = fitnessR.getGeometricMean();
 
 			// (fitnessV + (fithessProg * 1 / agent.steps)
 			// fitness progression over time is valued
@@ -1,11 +1,10 @@
 package mimetic.desire.behaviour.ecj.problems;
 
-import java.util.ArrayList;
-
 import org.apache.commons.math3.util.FastMath;
 
 import mimetic.desire.behaviour.Competition;
 import mimetic.desire.behaviour.MimeticBehaviour;
+import mimetic.desire.util.StreamingStatistics;
 import sim.util.Double2D;
 import ec.EvolutionState;
 import ec.Individual;
@@ -28,9 +27,13 @@ public class MimeticEvaluation extends AbstractEvoBehaviourProblem {
 	public void evaluate(EvolutionState state, Individual ind,
 			int subpopulation, int threadnum) {
 
+		// individuals scored by the surrogate keep their predicted fitness
+		if (ind.evaluated)
+			return;
+
 		Competition behave = (Competition) super.behaviour;
 
-		ArrayList<Double> mimeticError = behave
+		StreamingStatistics mimeticError = behave
 				.getImitationErrors((CGPIndividual) ind);
 
 		if (mimeticError == null) {
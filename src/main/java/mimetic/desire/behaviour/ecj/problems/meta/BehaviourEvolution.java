@@ -1,10 +1,9 @@
 package mimetic.desire.behaviour.ecj.problems.meta;
 
 import mimetic.desire.behaviour.ecj.problems.AbstractEvoBehaviourProblem;
+import mimetic.desire.behaviour.meta.EnergyStats;
 import mimetic.desire.behaviour.meta.MetaCompetition;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-
 import ec.EvolutionState;
 import ec.Individual;
 import ec.cgp.FitnessCGP;
@@ -17,6 +16,10 @@ public class BehaviourEvolution extends AbstractEvoBehaviourProblem {
 	public void evaluate(EvolutionState state, Individual ind,
 			int subpopulation, int threadnum) {
 
+		// individuals scored by the surrogate keep their predicted fitness
+		if (ind.evaluated)
+			return;
+
 		// evaluation behaviour based on energy samples from best objective
 		// function
 		MetaCompetition b = (MetaCompetition) behaviour;
@@ -24,7 +27,7 @@ public class BehaviourEvolution extends AbstractEvoBehaviourProblem {
 		CGPIndividual controller = (CGPIndividual) ind;
 		CGPIndividual objective = b.getObjectiveFunction();
 
-		DescriptiveStatistics energyStats = b.getEnergyStats(controller,
+		EnergyStats energyStats = b.getEnergyStats(controller,
 				objective);
 
 		float fitnessValue = (float) energyStats.getMean();
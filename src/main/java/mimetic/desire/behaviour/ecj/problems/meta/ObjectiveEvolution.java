@@ -1,15 +1,13 @@
 package mimetic.desire.behaviour.ecj.problems.meta;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.FastMath;
 import org.apache.commons.math3.util.MathArrays;
 
 import mimetic.desire.behaviour.ecj.problems.AbstractEvoBehaviourProblem;
 import mimetic.desire.behaviour.meta.MetaCompetition;
+import mimetic.desire.util.StreamingStatistics;
 import ec.EvolutionState;
 import ec.Individual;
 import ec.cgp.FitnessCGP;
@@ -48,29 +46,27 @@ public class ObjectiveEvolution extends AbstractEvoBehaviourProblem {
 	 */
 	private CGPIndividual getTrainer() {
 		MetaCompetition b = (MetaCompetition) behaviour;
-
-		Map<Individual, Double> stats = new HashMap<>();
-
-		// compute the objective fitness for all the predictors
-		for (Individual controller : b.getControllers()) {
-			DescriptiveStatistics predictedFitness = new DescriptiveStatistics();
-			for (Individual objective : b.getObjectives()) {
-				DescriptiveStatistics energyStats = b.getEnergyStats(
-						(CGPIndividual) controller, (CGPIndividual) objective);
-				predictedFitness.addValue(energyStats.getMean());
-			}
-			stats.put(controller, predictedFitness.getMean());
-
-		}
-		for (Individual objective : b.getObjectives()) {
-			for (Individual controller : b.getControllers()) {
-				DescriptiveStatistics energyStats = b.getEnergyStats(
-						(CGPIndividual) controller, (CGPIndividual) objective);
-				energyStats.getV
+		Individual[] controllers = b.getControllers();
+		int numObjectives = b.getObjectives().length;
+
+		CGPIndividual trainer = null;
+		double maxVariance = Double.NEGATIVE_INFINITY;
+
+		// compute the objective fitness for all the predictors, controllers
+		// that were never sampled have NaN means and are skipped
+		for (int c = 0; c < controllers.length; c++) {
+			StreamingStatistics predictedFitness = new StreamingStatistics();
+			for (int o = 0; o < numObjectives; o++)
+				predictedFitness.add(b.getEnergyStats(c, o).getMean());
+
+			double variance = predictedFitness.getVariance();
+			if (variance > maxVariance) {
+				maxVariance = variance;
+				trainer = (CGPIndividual) controllers[c];
 			}
 		}
 
-		return null;
+		return trainer;
 	}
 
 }
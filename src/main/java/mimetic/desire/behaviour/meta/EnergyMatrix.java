@@ -0,0 +1,105 @@
+package mimetic.desire.behaviour.meta;
+
+import java.util.Arrays;
+
+/**
+ * Running statistics of the energy samples of each controller and objective
+ * pair, indexed by their slots in the respective populations. The mean and
+ * variance are updated online (Welford's method) so the memory used does not
+ * grow with the number of samples and adding a sample allocates nothing.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class EnergyMatrix {
+	private final int rows;
+	private final int cols;
+
+	final long[] n;
+	final double[] mean;
+	final double[] m2;
+	final double[] min;
+	final double[] max;
+
+	/**
+	 * 
+	 * @param rows
+	 *            number of controllers
+	 * @param cols
+	 *            number of objectives
+	 */
+	public EnergyMatrix(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+
+		int size = rows * cols;
+		n = new long[size];
+		mean = new double[size];
+		m2 = new double[size];
+		min = new double[size];
+		max = new double[size];
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	/**
+	 * Adds an energy sample to a controller and objective pair.
+	 */
+	public void add(int row, int col, double value) {
+		int i = index(row, col);
+
+		long count = ++n[i];
+		double delta = value - mean[i];
+		mean[i] += delta / count;
+		m2[i] += delta * (value - mean[i]);
+
+		if (count == 1) {
+			min[i] = value;
+			max[i] = value;
+		} else if (value < min[i]) {
+			min[i] = value;
+		} else if (value > max[i]) {
+			max[i] = value;
+		}
+	}
+
+	/**
+	 * Returns a view of the statistics of a controller and objective pair, the
+	 * view reflects the samples added after it is created.
+	 */
+	public EnergyStats get(int row, int col) {
+		return new EnergyStats(this, index(row, col));
+	}
+
+	/**
+	 * Discards all the samples.
+	 */
+	public void clear() {
+		Arrays.fill(n, 0);
+		Arrays.fill(mean, 0);
+		Arrays.fill(m2, 0);
+	}
+
+	/**
+	 * Discards the samples of a controller.
+	 */
+	public void clearRow(int row) {
+		int from = index(row, 0);
+		Arrays.fill(n, from, from + cols, 0);
+		Arrays.fill(mean, from, from + cols, 0);
+		Arrays.fill(m2, from, from + cols, 0);
+	}
+
+	private int index(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			throw new RuntimeException("No energy statistics for (" + row
+					+ ", " + col + ")");
+		return row * cols + col;
+	}
+}
@@ -0,0 +1,47 @@
+package mimetic.desire.behaviour.meta;
+
+/**
+ * Statistics of the energy samples of a controller and objective pair, a view
+ * over one cell of an {@link EnergyMatrix}. Values follow the conventions of
+ * the commons-math descriptive statistics: the variance is the bias corrected
+ * sample variance and all the values are NaN when there are no samples.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public final class EnergyStats {
+	private final EnergyMatrix matrix;
+	private final int index;
+
+	EnergyStats(EnergyMatrix matrix, int index) {
+		this.matrix = matrix;
+		this.index = index;
+	}
+
+	public long getN() {
+		return matrix.n[index];
+	}
+
+	public double getMean() {
+		return getN() == 0 ? Double.NaN : matrix.mean[index];
+	}
+
+	public double getVariance() {
+		long n = getN();
+		if (n == 0)
+			return Double.NaN;
+		return n == 1 ? 0 : matrix.m2[index] / (n - 1);
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	public double getMin() {
+		return getN() == 0 ? Double.NaN : matrix.min[index];
+	}
+
+	public double getMax() {
+		return getN() == 0 ? Double.NaN : matrix.max[index];
+	}
+}
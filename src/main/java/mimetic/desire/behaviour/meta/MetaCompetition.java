@@ -1,34 +1,31 @@
 package mimetic.desire.behaviour.meta;
 
-import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-
-import javax.management.RuntimeErrorException;
 
 import mimetic.desire.Agent;
 import mimetic.desire.MimeticDesire;
 import mimetic.desire.behaviour.AbstractBehaviour;
+import mimetic.desire.behaviour.Racing;
+import mimetic.desire.behaviour.ecj.AsyncBreeder;
+import mimetic.desire.behaviour.ecj.Deme;
+import mimetic.desire.behaviour.ecj.EvoStateFactory;
+import mimetic.desire.behaviour.ecj.EvolvingPopulation;
+import mimetic.desire.behaviour.ecj.SharedEvolution;
+import mimetic.desire.behaviour.ecj.SteadyStateBreeder;
+import mimetic.desire.behaviour.ecj.Surrogate;
+import mimetic.desire.behaviour.ecj.eval.CGPBatchEvaluator;
+import mimetic.desire.behaviour.ecj.eval.CGPCompiler;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluator;
+import mimetic.desire.behaviour.ecj.eval.CGPEvaluators;
 import mimetic.desire.behaviour.ecj.problems.meta.BehaviourEvolution;
 import mimetic.desire.behaviour.ecj.problems.meta.ObjectiveEvolution;
 import mimetic.desire.util.Utils;
 
-import org.apache.commons.collections.keyvalue.MultiKey;
-import org.apache.commons.collections.map.MultiKeyMap;
-import org.apache.commons.lang.ArrayUtils;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-
-import sim.util.Double2D;
 import ec.EvolutionState;
-import ec.Evolve;
 import ec.Individual;
 import ec.Problem;
-import ec.cgp.eval.CGPSteppableInterpreter;
 import ec.cgp.genome.CGPIndividual;
 import ec.simple.SimpleStatistics;
-import ec.util.Output;
-import ec.util.ParameterDatabase;
 
 /**
  * TODO move part of this code to an abstract MetaBehaviour class.
@@ -50,14 +47,30 @@ public class MetaCompetition extends AbstractBehaviour {
 	// Evolutionary States
 	private EvolutionState behaviourEvo;
 	private EvolutionState objectiveEvo;
+	// evolves the controllers, see MimeticDesire#breedingLag
+	private EvolvingPopulation behaviourBreeder;
+	// the objectives are not evolved yet
+	private EvolvingPopulation objectivePopulation;
+	// replaces controllers one at a time, see MimeticDesire#steadyState
+	private SteadyStateBreeder steadyStateBreeder;
+	// rejects hopeless controllers early, see MimeticDesire#racing
+	private Racing racing;
+	// energy samples needed before a controller can be rejected
+	private static final int RACING_MIN_SAMPLES = 10;
+	// predicts the mean energy of new controllers, only the most promising
+	// run in the simulation, see MimeticDesire#surrogateFraction
+	private Surrogate surrogate;
+	private boolean[] live;
+	private int numLive;
 
 	// behaviour records the number times it steps
 	private int steps;
 
-	// the cgp interpreter used to execute the programs
-	// this works with any CGPIndividual because it relies on the species to
-	// interpret the genome
-	private CGPSteppableInterpreter cgpInterpreter;
+	// run the controller and objective programs, either with the cgp
+	// interpreter (which relies on the species to interpret the genome) or
+	// with compiled programs, see MimeticDesire#compiledControllers
+	private CGPEvaluator controllerEvaluator;
+	private CGPBatchEvaluator objectiveEvaluator;
 
 	/************************************************************************
 	 ************************** BEHAVIOUR SETUP *****************************
@@ -72,18 +85,49 @@ public class MetaCompetition extends AbstractBehaviour {
 		super.setup(agent, model);
 
 		steps = 0;
-		cgpInterpreter = new CGPSteppableInterpreter();
 
-		behaviourEvo = setupEvoState("behaviour_evo.params");
-		objectiveEvo = setupEvoState("objective_evo.params");
+		if (model.sharedEvolution) {
+			// both populations are demes of states shared by the agents
+			SharedEvolution behaviourEngine = model
+					.getEvolutionEngine("behaviour_evo.params");
+			SharedEvolution objectiveEngine = model
+					.getEvolutionEngine("objective_evo.params");
+			behaviourEvo = behaviourEngine.getState();
+			objectiveEvo = objectiveEngine.getState();
+			behaviourBreeder = behaviourEngine.createDeme(agent.random,
+					model.breedingLag);
+			objectivePopulation = objectiveEngine.createDeme(agent.random, 0);
+		} else {
+			behaviourEvo = setupEvoState("behaviour_evo.params");
+			objectiveEvo = setupEvoState("objective_evo.params");
+			behaviourBreeder = new AsyncBreeder(behaviourEvo,
+					model.breedingLag);
+			objectivePopulation = new AsyncBreeder(objectiveEvo, 0);
+		}
+		numLive = getControllers().length;
+		if (model.surrogateFraction < 1)
+			surrogate = new Surrogate(Surrogate.DEFAULT_CAPACITY,
+					Surrogate.DEFAULT_K);
+		if (model.steadyState) {
+			// controllers are evaluated as soon as they run out of energy
+			((BehaviourEvolution) behaviourBreeder.getProblem()).setup(
+					agent, model, this);
+			steadyStateBreeder = new SteadyStateBreeder(behaviourEvo);
+		}
+		// controllers race on their mean energy, the same value that is
+		// used as their fitness
+		if (model.racing)
+			racing = new Racing(Racing.DEFAULT_Z, RACING_MIN_SAMPLES, true);
+
+		controllerEvaluator = CGPEvaluators.forState(behaviourEvo, model);
+		objectiveEvaluator = CGPEvaluators.batchForState(objectiveEvo, model);
 
-		// energy samples is a multi map that stores the samples for the various
-		// predictors
+		// energy statistics for each controller and objective pair
 		resetEnergySamples();
 
 		// first run uses random predictor
-		currentObjectiveFn = (CGPIndividual) objectiveEvo.population.subpops[0].individuals[model.random
-				.nextInt(objectiveEvo.population.subpops[0].individuals.length)];
+		currentObjectiveFn = (CGPIndividual) getObjectives()[agent.random
+				.nextInt(getObjectives().length)];
 
 		// we need to keep track of the energy values for all the objective
 		// functions
@@ -101,26 +145,8 @@ public class MetaCompetition extends AbstractBehaviour {
 	 *            the parameter file
 	 */
 	private EvolutionState setupEvoState(String filename) {
-		EvolutionState evoState;
-
-		File parameterFile = new File(Thread.currentThread()
-				.getContextClassLoader().getResource(filename).getPath()
-				.toString());
-
-		ParameterDatabase dbase = null;
-		try {
-			dbase = new ParameterDatabase(parameterFile, new String[] {
-					"-file", parameterFile.getCanonicalPath() });
-
-		} catch (Exception e) {
-			throw new RuntimeErrorException(
-					new Error(
-							"Couldn't load the configuration file for the evolutionary behaviour"));
-		}
-
-		Output out = Evolve.buildOutput();
-
-		evoState = Evolve.initialize(dbase, 0, out);
+		EvolutionState evoState = EvoStateFactory.initialize(filename,
+				model.parameterOverrides, agent.random);
 		evoState.startFresh();
 
 		return evoState;
@@ -133,8 +159,9 @@ public class MetaCompetition extends AbstractBehaviour {
 	 */
 	@Override
 	public void finish() {
-		Evolve.cleanup(behaviourEvo);
-		Evolve.cleanup(objectiveEvo);
+		// shared states are cleaned up by the model
+		behaviourBreeder.finish();
+		objectivePopulation.finish();
 	}
 
 	/************************************************************************
@@ -146,22 +173,39 @@ public class MetaCompetition extends AbstractBehaviour {
 	private static final double ENERGY_UPDATE = 1;
 	// private double energy = DEFAULT_ENERGY;
 
-	private Map<CGPIndividual, Double> energy = null;
+	// energy of each objective function, indexed as the objective population.
+	// A slot only holds a valid value if it was written in the current epoch
+	// by the individual that still occupies it, otherwise the energy is the
+	// default. Resetting the energy is just starting a new epoch.
+	private double[] energy;
+	private int[] energyEpoch;
+	private Individual[] energyOwner;
+	private int epoch;
+
+	// last known slot of the objective function in the objective population
+	private int objectiveSlot;
 
 	// energy value that would be considered if the objective was to compete for
 	// actual fitness
 	private double competitionEnergy;
-	private Map<CGPIndividual, ArrayList<Double>> competitionEnergySamples;
-	private Map<CGPIndividual, DescriptiveStatistics> compEnergyStats;
 
 	private CGPIndividual controller;
-	private Object[] lastInputs;
-	// private Object[] lastOutputs;
+
+	// controller inputs (x)(dx)(y)(dy) plus 2 constants and its outputs
+	private final double[] controllerInputs = new double[6];
+	private final double[] controllerOutputs = new double[2];
+
+	// the objective reads the last inputs and outputs of the controller
+	private final double[] objectiveInputs = new double[controllerInputs.length
+			+ controllerOutputs.length];
+
+	// evaluation of the current controller by each objective, indexed as the
+	// objective population
+	private double[] objectiveEvaluations = new double[0];
 
 	// behaviour progress controll
 	private int behavioursEvaluated = 0;
 	private int currentController = 0;
-	private Object[] lastOutputs;
 
 	/**
 	 * BEHAVIOUR UPDATE ROUTINE In the update an agent runs its current
@@ -188,28 +232,50 @@ public class MetaCompetition extends AbstractBehaviour {
 			// behaviourEvo.population.subpops[0].individuals.length;
 
 			// evolves behaviour if all the controllers have been evaluated
-			int numControllers = behaviourEvo.population.subpops[0].individuals.length;
 			// we evaluated all the controllers so its time to evolve
-			if (behavioursEvaluated == numControllers) {
+			if (behavioursEvaluated == numLive) {
 				evolveBehaviour();
 
 				// evolves objectives if all controllers have been evaluated
 				evolveObjectives();
 
 				resetEnergySamples();
+				if (racing != null)
+					racing.reset();
+
+				// the new generation replaced the controllers, start over with
+				// the controller in the current slot
+				if (!behaviourBreeder.isBreeding()) {
+					screenControllers();
+					controller = (CGPIndividual) getControllers()[currentController];
+					resetEnergy();
+				}
+			}
+
+			// the next generation was bred in the background, start over with
+			// the controller in the current slot
+			if (behaviourBreeder.isBreeding() && behaviourBreeder.update(steps)) {
+				screenControllers();
+				controller = (CGPIndividual) getControllers()[currentController];
+				resetEnergy();
 			}
 
-			// switches controllers if out of energy
-			updateController();
+			if (behaviourBreeder.isBreeding()) {
+				// keep running the last controller without evaluating it
+				runController();
+			} else {
+				// switches controllers if out of energy
+				updateController();
 
-			// run current controller
-			runController();
+				// run current controller
+				runController();
 
-			// update energy values based on the best objective function
-			updateEnergy();
+				// update energy values based on the best objective function
+				updateEnergy();
 
-			// samples the energy values based on the sampling interval
-			sampleEnergy();
+				// samples the energy values based on the sampling interval
+				sampleEnergy();
+			}
 
 			steps++;
 
@@ -217,48 +283,88 @@ public class MetaCompetition extends AbstractBehaviour {
 	}
 
 	private void resetEnergySamples() {
-		energySamples = new MultiKeyMap();
-		coEvoEnergyStats = new MultiKeyMap();
-
-		competitionEnergySamples = new HashMap<>();
-		compEnergyStats = new HashMap<>();
+		int numControllers = getControllers().length;
+		int numObjectives = getObjectives().length;
+
+		// the matrices are only allocated again if the populations change size
+		if (energyStats == null || energyStats.getRows() != numControllers
+				|| energyStats.getCols() != numObjectives) {
+			energyStats = new EnergyMatrix(numControllers, numObjectives);
+			competitionEnergyStats = new EnergyMatrix(numControllers, 1);
+		} else {
+			energyStats.clear();
+			competitionEnergyStats.clear();
+		}
 	}
 
 	private void resetEnergy() {
-		energy = new HashMap<CGPIndividual, Double>();
-		Individual[] objectives = objectiveEvo.population.subpops[0].individuals;
-		for (Individual ind : objectives) {
-			CGPIndividual objective = (CGPIndividual) ind;
-			energy.put(objective, new Double(DEFAULT_ENERGY));
+		int numObjectives = getObjectives().length;
+		if (energy == null || energy.length != numObjectives) {
+			energy = new double[numObjectives];
+			energyEpoch = new int[numObjectives];
+			energyOwner = new Individual[numObjectives];
 		}
+		// stamps start at 0 so the first epoch is 1
+		epoch++;
 
 		competitionEnergy = DEFAULT_ENERGY;
 
 	}
 
+	private double getEnergy(Individual[] objectives, int slot) {
+		if (energyEpoch[slot] == epoch && energyOwner[slot] == objectives[slot])
+			return energy[slot];
+		return DEFAULT_ENERGY;
+	}
+
+	private void setEnergy(Individual[] objectives, int slot, double value) {
+		energy[slot] = value;
+		energyEpoch[slot] = epoch;
+		energyOwner[slot] = objectives[slot];
+	}
+
+	/*
+	 * the objective function can be a copy kept by the statistics so it is
+	 * looked up by equality, the slot is cached since it rarely changes
+	 */
+	private int getObjectiveSlot(Individual[] objectives,
+			CGPIndividual objective) {
+		int slot = findObjectiveSlot(objectives, objective);
+		if (slot < 0)
+			throw new RuntimeException(
+					"The objective function is not in the objective population");
+		return slot;
+	}
+
+	// -1 if the objective function is not in the population
+	private int findObjectiveSlot(Individual[] objectives,
+			CGPIndividual objective) {
+		if (objectiveSlot < objectives.length
+				&& objectives[objectiveSlot] == objective)
+			return objectiveSlot;
+
+		for (int i = 0; i < objectives.length; i++) {
+			if (objectives[i] == objective || objectives[i].equals(objective)) {
+				objectiveSlot = i;
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	private static final double constants[] = new double[] { 0.5, -0.5 };
 
 	private void runController() {
-		// interpret the result and update the velocity of the agent
-		cgpInterpreter.load(controller);
-
 		// prepare inputs for cgp controller program(x)(y)(dx)(dy)(f) |
 		// (f-1) ----num inputs 8 ---- num outputs 2
-		Double2D position = agent.getPosition();
-		Double2D velocity = agent.getVelocity();
-
-		double currentFitness = agent.getFitness();
-
 		// in the beginning we dont have historic data about fitness
 		// if (steps == 0) {
 		// //previousFitness = agent.getFitness();
 		// }
 
-		Double2D bestLocalFitness = agent.getBestFitnessCoordinates();
-
-		double scaledX = Utils.scale(position.x, model.space.width * -0.5,
+		double scaledX = Utils.scale(agent.getX(), model.space.width * -0.5,
 				model.space.width * 0.5);
-		double scaledY = Utils.scale(position.y, model.space.height * -0.5,
+		double scaledY = Utils.scale(agent.getY(), model.space.height * -0.5,
 				model.space.height * 0.5);
 
 		// double bestLocalX = Utils.scale(bestLocalFitness.x, model.space.width
@@ -271,30 +377,32 @@ public class MetaCompetition extends AbstractBehaviour {
 		// velocity.y, scaleFitness(currentFitness),
 		// scaleFitness(previousFitness), constants[0], constants[1] };
 
-		Object[] inputs = new Object[] { scaledX, velocity.x, scaledY,
-				velocity.y, constants[0], constants[1] };
-
-		// this is used as the inputs for the objective function
-		lastInputs = ArrayUtils.clone(inputs);
+		double[] inputs = controllerInputs;
+		inputs[0] = scaledX;
+		inputs[1] = agent.getVx();
+		inputs[2] = scaledY;
+		inputs[3] = agent.getVy();
+		inputs[4] = constants[0];
+		inputs[5] = constants[1];
 
 		// update last fitness to current fitness
 		// previousFitness = currentFitness;
 
 		// run the controller program
-		while (!cgpInterpreter.finished()) {
-			cgpInterpreter.step(inputs);
-		}
-		Object[] outputs = cgpInterpreter.getOutput();
+		controllerEvaluator.evaluate(controller, inputs, controllerOutputs);
 
-		lastOutputs = ArrayUtils.clone(outputs);
-		// apply sigmoid to outputs to restrict velocity from -1 to 1
+		// the inputs and outputs are used as the inputs for the objective
+		// function
+		System.arraycopy(inputs, 0, objectiveInputs, 0, inputs.length);
+		System.arraycopy(controllerOutputs, 0, objectiveInputs, inputs.length,
+				controllerOutputs.length);
 
-		double dx = Utils.squash((double) outputs[0]);
-		double dy = Utils.squash((double) outputs[1]);
+		// apply sigmoid to outputs to restrict velocity from -1 to 1
+		double dx = Utils.squash(controllerOutputs[0]);
+		double dy = Utils.squash(controllerOutputs[1]);
 
-		Double2D newVelocity = new Double2D(dx, dy);
 		// set the new position on the model
-		agent.setVelocity(newVelocity);
+		agent.setVelocity(dx, dy);
 		agent.updatePosition();
 
 	}
@@ -302,46 +410,21 @@ public class MetaCompetition extends AbstractBehaviour {
 	// energy sampling for the multiple objective functions and the competition
 	// function
 	public static final int ENERGY_SAMPLING_INTERVAL = 3;
-	private MultiKeyMap energySamples;
-	private MultiKeyMap coEvoEnergyStats;
+	// controller x objective statistics, indexed by population slot
+	private EnergyMatrix energyStats;
+	private EnergyMatrix competitionEnergyStats;
 
 	private void sampleEnergy() {
 
 		if (steps % ENERGY_SAMPLING_INTERVAL == 0) {
-			Individual[] objectives = objectiveEvo.population.subpops[0].individuals;
-
-			for (Individual objective : objectives) {
-				MultiKey key = new MultiKey(controller, objective);
-				if (!energySamples.containsKey(key)) {
-					energySamples.put(key, new ArrayList<Double>());
+			Individual[] objectives = getObjectives();
 
-					coEvoEnergyStats.put(key, new DescriptiveStatistics());
-				}
-				@SuppressWarnings("unchecked")
-				ArrayList<Double> controllerSamples = (ArrayList<Double>) energySamples
-						.get(key);
-
-				DescriptiveStatistics energyStats = (DescriptiveStatistics) coEvoEnergyStats
-						.get(key);
-
-				controllerSamples.add(energy.get(objective));
-				energyStats.addValue(energy.get(objective));
-			}
+			for (int i = 0; i < objectives.length; i++)
+				energyStats.add(currentController, i,
+						getEnergy(objectives, i));
 
 			// sample energy based on competition
-			if (!competitionEnergySamples.containsKey(controller)) {
-				competitionEnergySamples.put(controller,
-						new ArrayList<Double>());
-
-				compEnergyStats.put(controller, new DescriptiveStatistics());
-			}
-			ArrayList<Double> competitionSamples = (ArrayList<Double>) competitionEnergySamples
-					.get(controller);
-
-			DescriptiveStatistics copmStats = compEnergyStats.get(controller);
-
-			competitionSamples.add(competitionEnergy);
-			copmStats.addValue(competitionEnergy);
+			competitionEnergyStats.add(currentController, 0, competitionEnergy);
 
 			// TODO samples for actual fitness
 			// TODO samples for imitation
@@ -356,7 +439,7 @@ public class MetaCompetition extends AbstractBehaviour {
 	 * was updated by specific goals such as fitness, competition or imitation.
 	 */
 	private void evolveObjectives() {
-		ObjectiveEvolution problem = (ObjectiveEvolution) objectiveEvo.evaluator.p_problem;
+		ObjectiveEvolution problem = (ObjectiveEvolution) objectivePopulation.getProblem();
 		// usually it is not, the first time
 		if (!problem.isSetup()) {
 			problem.setup(agent, model, this);
@@ -379,13 +462,13 @@ public class MetaCompetition extends AbstractBehaviour {
 	 */
 	private void evolveBehaviour() {
 
-		BehaviourEvolution problem = (BehaviourEvolution) behaviourEvo.evaluator.p_problem;
+		BehaviourEvolution problem = (BehaviourEvolution) behaviourBreeder.getProblem();
 		// usually it is not, the first time
 		if (!problem.isSetup()) {
 			problem.setup(agent, model, this);
 		}
-		// generate the next batch of controllers
-		behaviourEvo.evolve();
+		// generate the next batch of controllers, possibly in the background
+		behaviourBreeder.evolve(steps);
 		behavioursEvaluated = 0;
 
 		evolveObjectives();
@@ -398,20 +481,43 @@ public class MetaCompetition extends AbstractBehaviour {
 	 */
 	private void updateController() {
 		if (steps == 0) {
-			controller = (CGPIndividual) behaviourEvo.population.subpops[0].individuals[0];
+			controller = (CGPIndividual) getControllers()[0];
 		} else {
 			// the first value for the energy associated with a objective
 			// function is the default
 
 			// controller is performing baddly, evaluate the next controller
-			if (energy.get(getObjectiveFunction()) <= 0) {
+			Individual[] objectives = getObjectives();
+			int slot = getObjectiveSlot(objectives, getObjectiveFunction());
+			// hopeless controllers are dropped before their energy runs out
+			boolean rejected = false;
+			if (racing != null) {
+				EnergyStats score = energyStats.get(currentController, slot);
+				rejected = racing.reject(score.getN(), score.getMean(),
+						score.getStandardDeviation());
+			}
 
-				behavioursEvaluated++;
-				int numControllers = behaviourEvo.population.subpops[0].individuals.length;
-				currentController = (currentController + 1) % numControllers;
+			if (rejected || getEnergy(objectives, slot) <= 0) {
+				EnergyStats score = energyStats.get(currentController, slot);
+				if (racing != null)
+					racing.finish(score.getN(), score.getMean(),
+							score.getStandardDeviation());
+				if (surrogate != null)
+					surrogate.add(controller, score.getMean());
+
+				if (steadyStateBreeder != null) {
+					// breed a replacement for the used up controller, its
+					// energy samples belonged to the previous controller
+					steadyStateBreeder.replace(currentController);
+					energyStats.clearRow(currentController);
+					competitionEnergyStats.clearRow(currentController);
+				} else {
+					behavioursEvaluated++;
+				}
+				currentController = nextController(currentController);
 
 				// get next controller
-				controller = (CGPIndividual) behaviourEvo.population.subpops[0].individuals[currentController];
+				controller = (CGPIndividual) getControllers()[currentController];
 
 				// restore energy
 				resetEnergy();
@@ -427,18 +533,17 @@ public class MetaCompetition extends AbstractBehaviour {
 	 */
 	private void updateEnergy() {
 
-		Map<CGPIndividual, Double> evaluations = evaluateController(controller);
+		double[] evaluations = evaluateController(controller);
 
-		Individual[] objectives = objectiveEvo.population.subpops[0].individuals;
+		Individual[] objectives = getObjectives();
 		// update the energy values for all the predictors
 		// the only energy used is the one for the best predictor but we need
 		// the other values to evolve the predictors
-		for (Individual objective : objectives) {
-			CGPIndividual obj = (CGPIndividual) objective;
-
-			double energyValue = energy.get(obj);
+		for (int i = 0; i < objectives.length; i++) {
+			double energyValue = getEnergy(objectives, i);
 
-			energy.put(obj, energyValue + ENERGY_UPDATE * evaluations.get(obj));
+			setEnergy(objectives, i, energyValue + ENERGY_UPDATE
+					* evaluations[i]);
 		}
 
 		// evaluate competition
@@ -450,7 +555,7 @@ public class MetaCompetition extends AbstractBehaviour {
 	private double evaluateCompetition() {
 
 		double fitness = agent.getFitness();
-		double fitnessMediator = mediator.getBestFitness();
+		double fitnessMediator = mediator.getObservedBestFitness();
 
 		double fitnessDiff = (scaleFitness(fitness) - scaleFitness(fitnessMediator));
 
@@ -483,36 +588,58 @@ public class MetaCompetition extends AbstractBehaviour {
 
 	/**
 	 * Must return an evaluation of the current individual controlling the agent
-	 * behaviour.
+	 * behaviour. All the objectives are run in one batch over the last inputs
+	 * and outputs of the controller.
 	 * 
 	 * @param controller
 	 *            the {@link CGPIndividual CGP program} being evaluated
-	 * @return an evaluation value between 0 and 1.
+	 * @return the evaluation of each objective, between -1 and 1, indexed as
+	 *         the objective population. The array is reused between calls.
 	 */
-	private Map<CGPIndividual, Double> evaluateController(
-			CGPIndividual controller) {
-		Map<CGPIndividual, Double> evaluations = new HashMap<CGPIndividual, Double>();
-
-		Object[] inputs = ArrayUtils.addAll(lastInputs, lastOutputs);
+	private double[] evaluateController(CGPIndividual controller) {
+		Individual[] objectives = getObjectives();
+		if (objectiveEvaluations.length != objectives.length)
+			objectiveEvaluations = new double[objectives.length];
 
-		Individual[] objectives = objectiveEvo.population.subpops[0].individuals;
-		for (Individual objective : objectives) {
-			CGPIndividual obj = (CGPIndividual) objective;
+		objectiveEvaluator.evaluate(objectives, objectiveInputs, 0,
+				objectiveEvaluations);
+		for (int i = 0; i < objectives.length; i++)
+			objectiveEvaluations[i] = Utils.squash(objectiveEvaluations[i]);
 
-			cgpInterpreter.load(obj);
-			while (!cgpInterpreter.finished()) {
-				cgpInterpreter.step(inputs);
-			}
-			double output = (double) cgpInterpreter.getOutput()[0];
-			evaluations.put(obj, Utils.squash(output));
+		return objectiveEvaluations;
+	}
 
+	/*
+	 * chooses the controllers of a new generation that run in the simulation,
+	 * the others keep the mean energy predicted by the surrogate
+	 */
+	private void screenControllers() {
+		Individual[] controllers = getControllers();
+		if (surrogate == null) {
+			numLive = controllers.length;
+			return;
 		}
-		return evaluations;
+		live = surrogate.screen(behaviourEvo, controllers,
+				model.surrogateFraction, true);
+
+		numLive = 0;
+		for (boolean l : live)
+			if (l)
+				numLive++;
+		currentController = nextController(-1);
+	}
+
+	// next controller that runs in the simulation
+	private int nextController(int controller) {
+		int numControllers = getControllers().length;
+		do {
+			controller = (controller + 1) % numControllers;
+		} while (live != null && !live[controller]);
+		return controller;
 	}
 
 	private void updateMediator() {
-		Agent[] neighbours = model.getNeighobours(agent.index);
-		mediator = neighbours[model.random.nextInt(neighbours.length)];
+		mediator = model.getRandomNeighbour(agent.index, agent.random);
 	}
 
 	CGPIndividual currentObjectiveFn;
@@ -525,7 +652,11 @@ public class MetaCompetition extends AbstractBehaviour {
 	 */
 	public CGPIndividual getObjectiveFunction() {
 		// the first run uses a random predictor
-		if (objectiveEvo.generation > 0) {
+		if (objectivePopulation instanceof Deme) {
+			Deme deme = (Deme) objectivePopulation;
+			if (deme.getGeneration() > 0)
+				currentObjectiveFn = (CGPIndividual) deme.getBestSoFar();
+		} else if (objectiveEvo.generation > 0) {
 			// the next runs have statistics to pick best objective function
 			Individual[] inds = ((SimpleStatistics) (objectiveEvo.statistics))
 					.getBestSoFar();
@@ -538,36 +669,102 @@ public class MetaCompetition extends AbstractBehaviour {
 		return competitionEnergy;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Returns the number of energy samples of a controller under an objective
+	 * function, the samples themselves are not kept, see
+	 * {@link #getEnergyStats(CGPIndividual, CGPIndividual)}.
+	 */
+	public long getEnergySampleCount(CGPIndividual controller,
+			CGPIndividual objective) {
+		EnergyStats stats = getEnergyStats(controller, objective);
+		return stats == null ? 0 : stats.getN();
+	}
+
+	public long getCompetitionEnergySampleCount(CGPIndividual controller) {
+		EnergyStats stats = getCompetitionEnergyStats(controller);
+		return stats == null ? 0 : stats.getN();
+	}
+
+	/**
+	 * Returns null if the controller and objective pair has no samples, the
+	 * samples themselves are no longer kept.
+	 * 
+	 * @deprecated use {@link #getEnergyStats(CGPIndividual, CGPIndividual)}
+	 *             or {@link #getEnergySampleCount(CGPIndividual, CGPIndividual)}
+	 */
+	@Deprecated
 	public ArrayList<Double> getEnergySamples(CGPIndividual controller,
 			CGPIndividual objective) {
-		return (ArrayList<Double>) energySamples.get(new MultiKey(controller,
-				objective));
+		return samplesNotKept(getEnergySampleCount(controller, objective));
 	}
 
+	/**
+	 * Returns null if the controller has no samples, the samples themselves
+	 * are no longer kept.
+	 * 
+	 * @deprecated use {@link #getCompetitionEnergyStats(CGPIndividual)} or
+	 *             {@link #getCompetitionEnergySampleCount(CGPIndividual)}
+	 */
+	@Deprecated
 	public ArrayList<Double> getCompetitionEnergySamples(
 			CGPIndividual controller) {
-		return competitionEnergySamples.get(controller);
+		return samplesNotKept(getCompetitionEnergySampleCount(controller));
+	}
+
+	private static ArrayList<Double> samplesNotKept(long n) {
+		if (n == 0)
+			return null;
+		throw new UnsupportedOperationException(
+				"Energy samples are not kept, use the energy statistics");
 	}
 
 	public Individual[] getControllers() {
-		return behaviourEvo.population.subpops[0].individuals;
+		return behaviourBreeder.getIndividuals();
 	}
 
 	public Individual[] getObjectives() {
-		return objectiveEvo.population.subpops[0].individuals;
+		return objectivePopulation.getIndividuals();
 	}
 
-	//return descriptive stats objects
-	
-	public DescriptiveStatistics getEnergyStats(CGPIndividual controller,
+	// mean fraction of the nodes that contribute to the program outputs
+
+	public double getControllerActiveNodeRatio() {
+		return CGPCompiler.forState(behaviourEvo).getActiveNodeRatio(
+				getControllers());
+	}
+
+	public double getObjectiveActiveNodeRatio() {
+		return CGPCompiler.forState(objectiveEvo).getActiveNodeRatio(
+				getObjectives());
+	}
+
+	// return views over the energy statistics, null if the individuals are
+	// not in the current populations
+
+	public EnergyStats getEnergyStats(CGPIndividual controller,
 			CGPIndividual objective) {
-		return (DescriptiveStatistics) coEvoEnergyStats.get(new MultiKey(
-				controller, objective));
+		int c = indexOf(getControllers(), controller);
+		int o = findObjectiveSlot(getObjectives(), objective);
+		return c < 0 || o < 0 ? null : energyStats.get(c, o);
 	}
 
-	public DescriptiveStatistics getCompetitionEnergyStats(
-			CGPIndividual controller) {
-		return compEnergyStats.get(controller);
+	public EnergyStats getCompetitionEnergyStats(CGPIndividual controller) {
+		int c = indexOf(getControllers(), controller);
+		return c < 0 ? null : competitionEnergyStats.get(c, 0);
+	}
+
+	/**
+	 * Returns the energy statistics of the controller and objective in the
+	 * given population slots.
+	 */
+	public EnergyStats getEnergyStats(int controller, int objective) {
+		return energyStats.get(controller, objective);
+	}
+
+	private static int indexOf(Individual[] population, Individual ind) {
+		for (int i = 0; i < population.length; i++)
+			if (population[i] == ind)
+				return i;
+		return -1;
 	}
 }
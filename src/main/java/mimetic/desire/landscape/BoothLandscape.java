@@ -0,0 +1,27 @@
+package mimetic.desire.landscape;
+
+/**
+ * Booth function, same values as {@link sim.app.pso.Booth}.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class BoothLandscape implements Landscape {
+
+	@Override
+	public double calcFitness(double x, double y) {
+		double a = x + 2 * y - 7;
+		double b = 2 * x + y - 5;
+		return 1000 - (a * a + b * b);
+	}
+
+	@Override
+	public void calcFitness(double[] x, double[] y, double[] fitness,
+			int length) {
+		for (int i = 0; i < length; i++) {
+			double a = x[i] + 2 * y[i] - 7;
+			double b = 2 * x[i] + y[i] - 5;
+			fitness[i] = 1000 - (a * a + b * b);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package mimetic.desire.landscape;
+
+import sim.app.pso.Evaluatable;
+
+/**
+ * Adapts any {@link Evaluatable} to a {@link Landscape}, the batch evaluation
+ * simply calls the function for each position.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class EvaluatableLandscape implements Landscape {
+	private final Evaluatable f;
+
+	public EvaluatableLandscape(Evaluatable f) {
+		this.f = f;
+	}
+
+	@Override
+	public double calcFitness(double x, double y) {
+		return f.calcFitness(x, y);
+	}
+
+	@Override
+	public void calcFitness(double[] x, double[] y, double[] fitness,
+			int length) {
+		for (int i = 0; i < length; i++) {
+			fitness[i] = f.calcFitness(x[i], y[i]);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package mimetic.desire.landscape;
+
+/**
+ * Griewangk function, same values as {@link sim.app.pso.Griewangk}.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class GriewangkLandscape implements Landscape {
+	private static final double SQRT_TWO = Math.sqrt(2);
+
+	@Override
+	public double calcFitness(double x, double y) {
+		return 1000 - (1 + (x * x) / 4000 + (y * y) / 4000 - Math.cos(x)
+				* Math.cos(y / SQRT_TWO));
+	}
+
+	@Override
+	public void calcFitness(double[] x, double[] y, double[] fitness,
+			int length) {
+		for (int i = 0; i < length; i++) {
+			double xi = x[i];
+			double yi = y[i];
+			fitness[i] = 1000 - (1 + (xi * xi) / 4000 + (yi * yi) / 4000 - Math
+					.cos(xi) * Math.cos(yi / SQRT_TWO));
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package mimetic.desire.landscape;
+
+import sim.app.pso.Evaluatable;
+
+/**
+ * Fitness landscape that can score the whole population in one call. The
+ * batch method takes the position columns of the agents (see
+ * {@link mimetic.desire.AgentState}) and fills a fitness column, which
+ * replaces one virtual call per agent with a single loop over primitive
+ * arrays.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public interface Landscape extends Evaluatable {
+
+	/**
+	 * Computes the fitness of the first length positions.
+	 * 
+	 * @param x
+	 *            x coordinates
+	 * @param y
+	 *            y coordinates
+	 * @param fitness
+	 *            receives the fitness of each position
+	 * @param length
+	 *            number of positions to evaluate
+	 */
+	void calcFitness(double[] x, double[] y, double[] fitness, int length);
+}
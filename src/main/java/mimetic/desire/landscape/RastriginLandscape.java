@@ -0,0 +1,28 @@
+package mimetic.desire.landscape;
+
+/**
+ * Rastrigin function, same values as {@link sim.app.pso.Rastrigin}.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class RastriginLandscape implements Landscape {
+	private static final double TWO_PI = 2 * Math.PI;
+
+	@Override
+	public double calcFitness(double x, double y) {
+		return 1000 - (20 + x * x - 10 * Math.cos(TWO_PI * x) + y * y - 10 * Math
+				.cos(TWO_PI * y));
+	}
+
+	@Override
+	public void calcFitness(double[] x, double[] y, double[] fitness,
+			int length) {
+		for (int i = 0; i < length; i++) {
+			double xi = x[i];
+			double yi = y[i];
+			fitness[i] = 1000 - (20 + xi * xi - 10 * Math.cos(TWO_PI * xi)
+					+ yi * yi - 10 * Math.cos(TWO_PI * yi));
+		}
+	}
+}
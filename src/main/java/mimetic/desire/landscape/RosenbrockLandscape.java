@@ -0,0 +1,27 @@
+package mimetic.desire.landscape;
+
+/**
+ * Rosenbrock function, same values as {@link sim.app.pso.Rosenbrock}.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class RosenbrockLandscape implements Landscape {
+
+	@Override
+	public double calcFitness(double x, double y) {
+		double a = x * x - y;
+		double b = 1 - x;
+		return 1000 - (100 * a * a + b * b);
+	}
+
+	@Override
+	public void calcFitness(double[] x, double[] y, double[] fitness,
+			int length) {
+		for (int i = 0; i < length; i++) {
+			double a = x[i] * x[i] - y[i];
+			double b = 1 - x[i];
+			fitness[i] = 1000 - (100 * a * a + b * b);
+		}
+	}
+}
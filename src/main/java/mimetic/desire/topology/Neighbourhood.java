@@ -0,0 +1,93 @@
+package mimetic.desire.topology;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Adjacency of the agents stored in compressed sparse rows. The neighbours of
+ * agent i are the entries of {@link #neighbours} from {@link #offsets}[i]
+ * (inclusive) to {@link #offsets}[i + 1] (exclusive). Reading a neighbourhood
+ * does not allocate anything.
+ * 
+ * Static topologies build the rows once, spatial neighbourhoods rewrite them
+ * in place on every step (see {@link SpatialIndex}).
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class Neighbourhood implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public int[] offsets;
+	public int[] neighbours;
+
+	/**
+	 * 
+	 * @param offsets
+	 *            row offsets, one more than the number of agents
+	 * @param neighbours
+	 *            the neighbour indexes of all the agents one row after the
+	 *            other
+	 */
+	public Neighbourhood(int[] offsets, int[] neighbours) {
+		this.offsets = offsets;
+		this.neighbours = neighbours;
+	}
+
+	/**
+	 * Builds the compressed rows from an adjacency list. An agent without
+	 * neighbours gets itself as its only neighbour, so every row can be
+	 * sampled.
+	 * 
+	 * @param adjacency
+	 *            neighbour indexes for each agent
+	 * @param degree
+	 *            number of valid entries in each row of adjacency
+	 */
+	public static Neighbourhood fromAdjacency(int[][] adjacency, int[] degree) {
+		int numAgents = adjacency.length;
+		int[] offsets = new int[numAgents + 1];
+		for (int i = 0; i < numAgents; i++) {
+			offsets[i + 1] = offsets[i] + Math.max(degree[i], 1);
+		}
+
+		int[] neighbours = new int[offsets[numAgents]];
+		for (int i = 0; i < numAgents; i++) {
+			if (degree[i] == 0)
+				neighbours[offsets[i]] = i;
+			else
+				System.arraycopy(adjacency[i], 0, neighbours, offsets[i],
+						degree[i]);
+		}
+		return new Neighbourhood(offsets, neighbours);
+	}
+
+	/**
+	 * Grows the neighbour array if it cannot hold the given number of entries,
+	 * keeping the current content.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (neighbours.length < capacity) {
+			neighbours = Arrays.copyOf(neighbours,
+					Math.max(capacity, neighbours.length * 2));
+		}
+	}
+
+	public int getNumAgents() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * @return the number of neighbours of the given agent
+	 */
+	public int size(int agent) {
+		return offsets[agent + 1] - offsets[agent];
+	}
+
+	/**
+	 * @return the k-th neighbour of the given agent
+	 */
+	public int get(int agent, int k) {
+		return neighbours[offsets[agent] + k];
+	}
+}
@@ -0,0 +1,82 @@
+package mimetic.desire.topology;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Random graph in which every agent has exactly neighbourhoodSize neighbours
+ * (without self loops or repeated edges). Edges are added by pairing random
+ * free connection points of distinct, non adjacent agents, restarting when the
+ * remaining points cannot be paired. If no graph is found after
+ * {@link #MAX_ATTEMPTS} restarts, the last attempt is used and a few agents
+ * end up with fewer neighbours.
+ * 
+ * If numAgents * neighbourhoodSize is odd one agent has one neighbour less.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class RandomRegularTopology implements Topology {
+	public static final int MAX_ATTEMPTS = 100;
+
+	// failed pairings (per free point) before restarting an attempt
+	private static final int MAX_FAILURES = 50;
+
+	@Override
+	public Neighbourhood build(int numAgents, int neighbourhoodSize,
+			MersenneTwisterFast random) {
+		int k = Math.min(neighbourhoodSize, numAgents - 1);
+		if (k <= 0)
+			return Neighbourhood.fromAdjacency(new int[numAgents][0],
+					new int[numAgents]);
+
+		int[][] adjacency = new int[numAgents][k];
+		int[] degree = new int[numAgents];
+		int[] points = new int[numAgents * k];
+
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			if (pair(adjacency, degree, points, k, random))
+				break;
+		}
+		return Neighbourhood.fromAdjacency(adjacency, degree);
+	}
+
+	private boolean pair(int[][] adjacency, int[] degree, int[] points, int k,
+			MersenneTwisterFast random) {
+		int numAgents = degree.length;
+		for (int i = 0; i < numAgents; i++) {
+			degree[i] = 0;
+			for (int j = 0; j < k; j++)
+				points[i * k + j] = i;
+		}
+
+		int free = points.length;
+		// an odd number of points leaves one of them out
+		if (free % 2 != 0)
+			free--;
+
+		int failures = 0;
+		while (free > 0) {
+			int a = random.nextInt(free);
+			int b = random.nextInt(free);
+			int u = points[a];
+			int v = points[b];
+
+			if (u == v || SmallWorldTopology.contains(adjacency[u], degree[u], v)) {
+				if (++failures > MAX_FAILURES * free)
+					return false;
+				continue;
+			}
+
+			adjacency[u][degree[u]++] = v;
+			adjacency[v][degree[v]++] = u;
+
+			// remove both points, the highest index first
+			int high = Math.max(a, b);
+			int low = Math.min(a, b);
+			points[high] = points[--free];
+			points[low] = points[--free];
+			failures = 0;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,35 @@
+package mimetic.desire.topology;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Agents placed on a ring, each neighbourhood is the window of
+ * neighbourhoodSize consecutive agents centred on the agent itself (the agent
+ * is part of its own neighbourhood). This is the regular neighbourhood the
+ * model always used.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class RingTopology implements Topology {
+
+	@Override
+	public Neighbourhood build(int numAgents, int neighbourhoodSize,
+			MersenneTwisterFast random) {
+		int[] offsets = new int[numAgents + 1];
+		int[] neighbours = new int[numAgents * neighbourhoodSize];
+
+		for (int agent = 0; agent < numAgents; agent++) {
+			offsets[agent + 1] = offsets[agent] + neighbourhoodSize;
+
+			int start = (agent - neighbourhoodSize / 2);
+			if (start < 0)
+				start += numAgents;
+
+			for (int i = 0; i < neighbourhoodSize; i++) {
+				neighbours[offsets[agent] + i] = (start + i) % numAgents;
+			}
+		}
+		return new Neighbourhood(offsets, neighbours);
+	}
+}
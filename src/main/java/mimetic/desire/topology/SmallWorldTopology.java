@@ -0,0 +1,107 @@
+package mimetic.desire.topology;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Watts-Strogatz small world. Agents start on a ring lattice connected to the
+ * neighbourhoodSize / 2 closest agents on each side, then each lattice edge is
+ * rewired to a random agent with the given probability. The agent is not part
+ * of its own neighbourhood, unless it has no other neighbour (see
+ * {@link Neighbourhood#fromAdjacency(int[][], int[])}).
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class SmallWorldTopology implements Topology {
+	private final double rewiringProbability;
+
+	/**
+	 * 
+	 * @param rewiringProbability
+	 *            probability of rewiring each edge of the ring lattice, 0
+	 *            gives the lattice and 1 a random graph
+	 */
+	public SmallWorldTopology(double rewiringProbability) {
+		this.rewiringProbability = rewiringProbability;
+	}
+
+	@Override
+	public Neighbourhood build(int numAgents, int neighbourhoodSize,
+			MersenneTwisterFast random) {
+		int half = Math.min(neighbourhoodSize / 2, (numAgents - 1) / 2);
+
+		// rewiring keeps the number of edges, but not the degree of each agent
+		int[][] adjacency = new int[numAgents][2 * half];
+		int[] degree = new int[numAgents];
+
+		for (int agent = 0; agent < numAgents; agent++) {
+			for (int j = 1; j <= half; j++) {
+				connect(adjacency, degree, agent, (agent + j) % numAgents);
+			}
+		}
+
+		for (int j = 1; j <= half; j++) {
+			for (int agent = 0; agent < numAgents; agent++) {
+				if (!random.nextBoolean(rewiringProbability))
+					continue;
+
+				// agent already connected to everyone else
+				if (degree[agent] >= numAgents - 1)
+					continue;
+
+				int target;
+				do {
+					target = random.nextInt(numAgents);
+				} while (target == agent
+						|| contains(adjacency[agent], degree[agent], target));
+
+				int lattice = (agent + j) % numAgents;
+				if (!contains(adjacency[agent], degree[agent], lattice))
+					continue;
+
+				disconnect(adjacency, degree, agent, lattice);
+				connect(adjacency, degree, agent, target);
+			}
+		}
+		return Neighbourhood.fromAdjacency(adjacency, degree);
+	}
+
+	static boolean contains(int[] row, int size, int value) {
+		for (int i = 0; i < size; i++) {
+			if (row[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+	static void connect(int[][] adjacency, int[] degree, int a, int b) {
+		append(adjacency, degree, a, b);
+		append(adjacency, degree, b, a);
+	}
+
+	private static void append(int[][] adjacency, int[] degree, int a, int b) {
+		if (degree[a] == adjacency[a].length) {
+			int[] grown = new int[Math.max(4, adjacency[a].length * 2)];
+			System.arraycopy(adjacency[a], 0, grown, 0, degree[a]);
+			adjacency[a] = grown;
+		}
+		adjacency[a][degree[a]++] = b;
+	}
+
+	private static void disconnect(int[][] adjacency, int[] degree, int a,
+			int b) {
+		remove(adjacency[a], degree, a, b);
+		remove(adjacency[b], degree, b, a);
+	}
+
+	private static void remove(int[] row, int[] degree, int a, int b) {
+		for (int i = 0; i < degree[a]; i++) {
+			if (row[i] == b) {
+				// keep the order of the remaining neighbours
+				System.arraycopy(row, i + 1, row, i, degree[a] - i - 1);
+				degree[a]--;
+				return;
+			}
+		}
+	}
+}
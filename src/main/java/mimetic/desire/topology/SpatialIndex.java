@@ -0,0 +1,284 @@
+package mimetic.desire.topology;
+
+import java.io.Serializable;
+
+/**
+ * Uniform hash grid over the toroidal world of the model, used to find the
+ * agents within a radius or the k nearest agents without scanning the whole
+ * population. The world is centred on the origin, as in the model, and
+ * distances wrap around its borders.
+ * 
+ * The grid is rebuilt from the agent positions once per step with a counting
+ * sort, each query then only visits the cells around the agent.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class SpatialIndex implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final double width;
+	private final double height;
+
+	private final int cols;
+	private final int rows;
+	private final double cellWidth;
+	private final double cellHeight;
+
+	// agents sorted by cell, the agents of cell c are in
+	// cellAgents[cellStart[c]] ... cellAgents[cellStart[c + 1] - 1]
+	private final int[] cellStart;
+	private final int[] cellAgents;
+	private final int[] agentCell;
+
+	// marks the cells visited by the current query, small grids wrap around
+	// onto the same cells
+	private final int[] cellStamp;
+	private int stamp;
+
+	// k nearest candidates, sorted by distance
+	private double[] nearestDistance = new double[0];
+	private int[] nearestAgent = new int[0];
+
+	/**
+	 * 
+	 * @param width
+	 *            world width
+	 * @param height
+	 *            world height
+	 * @param cellSize
+	 *            minimum size of the grid cells, for radius queries this should
+	 *            be the radius
+	 * @param numAgents
+	 *            number of agents indexed
+	 */
+	public SpatialIndex(double width, double height, double cellSize,
+			int numAgents) {
+		this.width = width;
+		this.height = height;
+
+		cols = Math.max(1, (int) (width / cellSize));
+		rows = Math.max(1, (int) (height / cellSize));
+		cellWidth = width / cols;
+		cellHeight = height / rows;
+
+		cellStart = new int[cols * rows + 1];
+		cellAgents = new int[numAgents];
+		agentCell = new int[numAgents];
+		cellStamp = new int[cols * rows];
+	}
+
+	/**
+	 * Cell size that leaves about k agents per cell, a good fit for the k
+	 * nearest neighbours queries.
+	 */
+	public static double cellSizeForNearest(double width, double height,
+			int numAgents, int k) {
+		return Math.sqrt(width * height * Math.max(k, 1)
+				/ Math.max(numAgents, 1));
+	}
+
+	/**
+	 * Sorts the agents into the grid cells.
+	 * 
+	 * @param x
+	 *            agent x coordinates
+	 * @param y
+	 *            agent y coordinates
+	 */
+	public void rebuild(double[] x, double[] y) {
+		int numAgents = agentCell.length;
+		int numCells = cols * rows;
+
+		for (int c = 0; c <= numCells; c++)
+			cellStart[c] = 0;
+
+		for (int i = 0; i < numAgents; i++) {
+			int cell = cellOf(x[i], y[i]);
+			agentCell[i] = cell;
+			cellStart[cell + 1]++;
+		}
+		for (int c = 0; c < numCells; c++)
+			cellStart[c + 1] += cellStart[c];
+
+		// fill each cell from its end (cellStart[c + 1] is the end of cell c),
+		// this leaves cellStart[c + 1] at the start of cell c
+		for (int i = numAgents - 1; i >= 0; i--) {
+			int cell = agentCell[i];
+			cellAgents[--cellStart[cell + 1]] = i;
+		}
+		for (int c = 0; c < numCells; c++)
+			cellStart[c] = cellStart[c + 1];
+		cellStart[numCells] = numAgents;
+	}
+
+	private int cellOf(double x, double y) {
+		int col = (int) ((x + width * 0.5) / cellWidth);
+		int row = (int) ((y + height * 0.5) / cellHeight);
+
+		// positions on the upper border (or rounding) fall in the last cell
+		if (col >= cols)
+			col = cols - 1;
+		else if (col < 0)
+			col = 0;
+		if (row >= rows)
+			row = rows - 1;
+		else if (row < 0)
+			row = 0;
+
+		return row * cols + col;
+	}
+
+	private double wrappedDistance(double x1, double y1, double x2, double y2) {
+		double dx = Math.abs(x1 - x2);
+		double dy = Math.abs(y1 - y2);
+		if (dx > width * 0.5)
+			dx = width - dx;
+		if (dy > height * 0.5)
+			dy = height - dy;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Rewrites the neighbourhood of every agent with the agents within the
+	 * given distance. An agent without anyone around is its own neighbour, so
+	 * that it can still pick a mediator.
+	 */
+	public void withinRadius(double[] x, double[] y, double radius,
+			Neighbourhood target) {
+		int numAgents = agentCell.length;
+		int ringsX = (int) Math.ceil(radius / cellWidth);
+		int ringsY = (int) Math.ceil(radius / cellHeight);
+
+		int count = 0;
+		for (int i = 0; i < numAgents; i++) {
+			target.offsets[i] = count;
+			stamp++;
+
+			int col = agentCell[i] % cols;
+			int row = agentCell[i] / cols;
+
+			for (int dy = -ringsY; dy <= ringsY; dy++) {
+				int r = ((row + dy) % rows + rows) % rows;
+				for (int dx = -ringsX; dx <= ringsX; dx++) {
+					int cell = r * cols + ((col + dx) % cols + cols) % cols;
+					if (cellStamp[cell] == stamp)
+						continue;
+					cellStamp[cell] = stamp;
+
+					for (int a = cellStart[cell]; a < cellStart[cell + 1]; a++) {
+						int j = cellAgents[a];
+						if (j != i
+								&& wrappedDistance(x[i], y[i], x[j], y[j]) <= radius) {
+							target.ensureCapacity(count + 1);
+							target.neighbours[count++] = j;
+						}
+					}
+				}
+			}
+
+			if (count == target.offsets[i]) {
+				target.ensureCapacity(count + 1);
+				target.neighbours[count++] = i;
+			}
+		}
+		target.offsets[numAgents] = count;
+	}
+
+	/**
+	 * Rewrites the neighbourhood of every agent with its k nearest agents,
+	 * closest first. The grid is searched in rings of cells around the agent
+	 * until no unvisited cell can hold anything closer than the k-th agent
+	 * found. An agent without neighbours (a single agent or k = 0) gets itself
+	 * as its only neighbour, as in {@link #withinRadius}.
+	 */
+	public void nearest(double[] x, double[] y, int k, Neighbourhood target) {
+		int numAgents = agentCell.length;
+		k = Math.min(k, numAgents - 1);
+		if (nearestAgent.length < k) {
+			nearestAgent = new int[k];
+			nearestDistance = new double[k];
+		}
+		target.ensureCapacity(numAgents * Math.max(k, 1));
+
+		int maxRing = Math.max(cols, rows) / 2 + 1;
+		double cellSize = Math.min(cellWidth, cellHeight);
+
+		int count = 0;
+		for (int i = 0; i < numAgents; i++) {
+			target.offsets[i] = count;
+			stamp++;
+
+			int col = agentCell[i] % cols;
+			int row = agentCell[i] / cols;
+			int found = 0;
+
+			for (int ring = 0; ring <= maxRing; ring++) {
+				for (int dy = -ring; dy <= ring; dy++) {
+					int r = ((row + dy) % rows + rows) % rows;
+					for (int dx = -ring; dx <= ring; dx++) {
+						// only the border of the ring, the inside was visited
+						if (Math.abs(dx) != ring && Math.abs(dy) != ring)
+							continue;
+
+						int cell = r * cols + ((col + dx) % cols + cols) % cols;
+						if (cellStamp[cell] == stamp)
+							continue;
+						cellStamp[cell] = stamp;
+
+						for (int a = cellStart[cell]; a < cellStart[cell + 1]; a++) {
+							int j = cellAgents[a];
+							if (j != i)
+								found = offer(j,
+										wrappedDistance(x[i], y[i], x[j], y[j]),
+										found, k);
+						}
+					}
+				}
+				// anything in the next ring is at least ring cells away
+				if (found == k
+						&& (k == 0 || nearestDistance[k - 1] <= ring * cellSize))
+					break;
+			}
+
+			if (found == 0) {
+				target.neighbours[count++] = i;
+			} else {
+				System.arraycopy(nearestAgent, 0, target.neighbours, count,
+						found);
+				count += found;
+			}
+		}
+		target.offsets[numAgents] = count;
+	}
+
+	// insertion in the sorted candidates
+	private int offer(int agent, double distance, int found, int k) {
+		if (k == 0)
+			return 0;
+		if (found == k
+				&& !closer(distance, agent, nearestDistance[k - 1],
+						nearestAgent[k - 1]))
+			return found;
+
+		int i = found < k ? found : k - 1;
+		while (i > 0
+				&& closer(distance, agent, nearestDistance[i - 1],
+						nearestAgent[i - 1])) {
+			nearestDistance[i] = nearestDistance[i - 1];
+			nearestAgent[i] = nearestAgent[i - 1];
+			i--;
+		}
+		nearestDistance[i] = distance;
+		nearestAgent[i] = agent;
+
+		return found < k ? found + 1 : found;
+	}
+
+	// ties are broken by the lowest agent index
+	private static boolean closer(double distance, int agent,
+			double otherDistance, int other) {
+		return distance < otherDistance
+				|| (distance == otherDistance && agent < other);
+	}
+}
@@ -0,0 +1,27 @@
+package mimetic.desire.topology;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Social structure of the agents. A topology is built once when the model
+ * starts into a {@link Neighbourhood} that the agents read during the
+ * simulation.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public interface Topology {
+
+	/**
+	 * 
+	 * @param numAgents
+	 *            number of agents in the model
+	 * @param neighbourhoodSize
+	 *            desired number of neighbours per agent
+	 * @param random
+	 *            random stream used by stochastic topologies
+	 * @return the neighbourhood of every agent
+	 */
+	Neighbourhood build(int numAgents, int neighbourhoodSize,
+			MersenneTwisterFast random);
+}
@@ -0,0 +1,62 @@
+package mimetic.desire.topology;
+
+import java.util.Arrays;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Agents placed on a toroidal square lattice, filled row by row. The
+ * neighbours of an agent are the agents within a manhattan distance r, where
+ * r is the smallest radius whose von Neumann neighbourhood (2r(r+1) cells) can
+ * hold neighbourhoodSize agents. With neighbourhoodSize up to 4 this is the
+ * usual north, south, east and west lattice.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class VonNeumannTopology implements Topology {
+
+	@Override
+	public Neighbourhood build(int numAgents, int neighbourhoodSize,
+			MersenneTwisterFast random) {
+		int width = (int) Math.ceil(Math.sqrt(numAgents));
+		int height = width == 0 ? 0 : (numAgents + width - 1) / width;
+
+		int radius = 1;
+		while (2 * radius * (radius + 1) < neighbourhoodSize)
+			radius++;
+
+		int[][] adjacency = new int[numAgents][2 * radius * (radius + 1)];
+		int[] degree = new int[numAgents];
+
+		// small lattices wrap onto the same cells, avoid repeated neighbours
+		int[] seen = new int[numAgents];
+		Arrays.fill(seen, -1);
+
+		for (int agent = 0; agent < numAgents; agent++) {
+			int col = agent % width;
+			int row = agent / width;
+
+			for (int dy = -radius; dy <= radius; dy++) {
+				int span = radius - Math.abs(dy);
+				for (int dx = -span; dx <= span; dx++) {
+					if (dx == 0 && dy == 0)
+						continue;
+
+					int c = ((col + dx) % width + width) % width;
+					int r = ((row + dy) % height + height) % height;
+					int neighbour = r * width + c;
+
+					// the last row of the lattice may not be complete
+					if (neighbour >= numAgents || neighbour == agent
+							|| seen[neighbour] == agent)
+						continue;
+
+					seen[neighbour] = agent;
+					adjacency[agent][degree[agent]++] = neighbour;
+				}
+			}
+		}
+		return Neighbourhood.fromAdjacency(adjacency, degree);
+	}
+}
@@ -0,0 +1,130 @@
+package mimetic.desire.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of a quantile with the P-square algorithm (Jain and
+ * Chlamtac, 1985). Only five markers are kept regardless of how many values
+ * are added, the markers are moved towards their desired positions with a
+ * piecewise parabolic interpolation.
+ * 
+ * @author Davide Nunes
+ * 
+ */
+public class P2Quantile implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final double p;
+
+	// marker heights and actual positions
+	private final double[] q = new double[5];
+	private final double[] n = new double[5];
+
+	// desired marker positions and their increments
+	private final double[] desired = new double[5];
+	private final double[] increment;
+
+	private long count;
+
+	/**
+	 * 
+	 * @param p
+	 *            the quantile to estimate, between 0 and 1
+	 */
+	public P2Quantile(double p) {
+		if (p < 0 || p > 1)
+			throw new RuntimeException("Quantile must be in [0,1]: " + p);
+		this.p = p;
+		this.increment = new double[] { 0, p / 2, p, (1 + p) / 2, 1 };
+	}
+
+	public double getQuantile() {
+		return p;
+	}
+
+	public long getN() {
+		return count;
+	}
+
+	public void add(double x) {
+		if (count < 5) {
+			q[(int) count] = x;
+			count++;
+			if (count == 5) {
+				Arrays.sort(q);
+				for (int i = 0; i < 5; i++)
+					n[i] = i + 1;
+				desired[0] = 1;
+				desired[1] = 1 + 2 * p;
+				desired[2] = 1 + 4 * p;
+				desired[3] = 3 + 2 * p;
+				desired[4] = 5;
+			}
+			return;
+		}
+		count++;
+
+		// find the cell k such that q[k] <= x < q[k+1], extending the extremes
+		int k;
+		if (x < q[0]) {
+			q[0] = x;
+			k = 0;
+		} else if (x >= q[4]) {
+			q[4] = x;
+			k = 3;
+		} else {
+			k = 0;
+			while (x >= q[k + 1])
+				k++;
+		}
+
+		for (int i = k + 1; i < 5; i++)
+			n[i]++;
+		for (int i = 0; i < 5; i++)
+			desired[i] += increment[i];
+
+		// adjust the middle markers if they are off their desired positions
+		for (int i = 1; i <= 3; i++) {
+			double d = desired[i] - n[i];
+			if ((d >= 1 && n[i + 1] - n[i] > 1)
+					|| (d <= -1 && n[i - 1] - n[i] < -1)) {
+				int s = d >= 0 ? 1 : -1;
+				double qp = parabolic(i, s);
+				if (q[i - 1] < qp && qp < q[i + 1])
+					q[i] = qp;
+				else
+					q[i] = linear(i, s);
+				n[i] += s;
+			}
+		}
+	}
+
+	private double parabolic(int i, int s) {
+		return q[i]
+				+ s
+				/ (n[i + 1] - n[i - 1])
+				* ((n[i] - n[i - 1] + s) * (q[i + 1] - q[i])
+						/ (n[i + 1] - n[i]) + (n[i + 1] - n[i] - s)
+						* (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+	}
+
+	private double linear(int i, int s) {
+		return q[i] + s * (q[i + s] - q[i]) / (n[i + s] - n[i]);
+	}
+
+	/**
+	 * Returns the current estimate, NaN if no value was added. With less than
+	 * five values the exact quantile (nearest rank) is returned.
+	 */
+	public double getResult() {
+		if (count == 0)
+			return Double.NaN;
+		if (count < 5) {
+			double[] values = Arrays.copyOf(q, (int) count);
+			Arrays.sort(values);
+			return values[(int) Math.round(p * (count - 1))];
+		}
+		return q[2];
+	}
+}
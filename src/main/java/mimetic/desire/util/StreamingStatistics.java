@@ -0,0 +1,160 @@
+package mimetic.desire.util;
+
+/**
+ * Summary statistics computed as values are added, in constant memory. The
+ * mean and variance are updated with Welford's method and the geometric mean
+ * from the running sum of logarithms, so none of the values need to be kept.
+ *
+ * Optionally the last values can be kept in a fixed size window (a ring
+ * buffer) for statistics over the most recent values only.
+ *
+ * Values follow the conventions of the commons-math descriptive statistics:
+ * the variance is the bias corrected sample variance and the statistics of an
+ * empty record are NaN.
+ *
+ * @author Davide Nunes
+ *
+ */
+public class StreamingStatistics {
+	private long n;
+	private double mean;
+	private double m2;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private double sum;
+	private double sumOfLogs;
+
+	// most recent values, window[last] is the last value added
+	private final double[] window;
+	private int last = -1;
+	private double windowSum;
+
+	/**
+	 * Creates statistics without a window of recent values.
+	 */
+	public StreamingStatistics() {
+		this(0);
+	}
+
+	/**
+	 *
+	 * @param windowSize
+	 *            number of recent values to keep, 0 for none
+	 */
+	public StreamingStatistics(int windowSize) {
+		if (windowSize < 0)
+			throw new RuntimeException("Invalid window size: " + windowSize);
+		window = new double[windowSize];
+	}
+
+	public void add(double value) {
+		n++;
+		double delta = value - mean;
+		mean += delta / n;
+		m2 += delta * (value - mean);
+
+		if (n == 1) {
+			min = value;
+			max = value;
+		} else if (value < min) {
+			min = value;
+		} else if (value > max) {
+			max = value;
+		}
+
+		sum += value;
+		sumOfLogs += Math.log(value);
+
+		if (window.length > 0) {
+			last = (last + 1) % window.length;
+			if (n > window.length)
+				windowSum -= window[last];
+			window[last] = value;
+			windowSum += value;
+		}
+	}
+
+	public void clear() {
+		n = 0;
+		mean = 0;
+		m2 = 0;
+		min = Double.NaN;
+		max = Double.NaN;
+		sum = 0;
+		sumOfLogs = 0;
+		last = -1;
+		windowSum = 0;
+	}
+
+	public long getN() {
+		return n;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public double getMean() {
+		return n == 0 ? Double.NaN : mean;
+	}
+
+	public double getVariance() {
+		if (n == 0)
+			return Double.NaN;
+		return n == 1 ? 0 : m2 / (n - 1);
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * The geometric mean, 0 if any of the values is 0 and NaN if any is
+	 * negative.
+	 */
+	public double getGeometricMean() {
+		return n == 0 ? Double.NaN : Math.exp(sumOfLogs / n);
+	}
+
+	public int getWindowSize() {
+		return window.length;
+	}
+
+	/**
+	 * Number of values currently in the window.
+	 */
+	public int getWindowN() {
+		return (int) Math.min(n, window.length);
+	}
+
+	/**
+	 * The mean of the values in the window.
+	 */
+	public double getWindowMean() {
+		int size = getWindowN();
+		return size == 0 ? Double.NaN : windowSum / size;
+	}
+
+	/**
+	 * Returns a recent value, 0 is the last value added.
+	 *
+	 * @param age
+	 *            how many values were added after the one returned, must be
+	 *            less than {@link #getWindowN()}
+	 */
+	public double getRecent(int age) {
+		if (age < 0 || age >= getWindowN())
+			throw new RuntimeException("Value " + age
+					+ " is not in the window of recent values");
+		int i = last - age;
+		return window[i < 0 ? i + window.length : i];
+	}
+}
@@ -1,6 +1,12 @@
 package mimetic.desire.util;
 
-import org.apache.commons.math3.analysis.function.Sigmoid;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.util.FastMath;
 
 /**
  * Any reusable utilities will be placed in this class
@@ -9,6 +15,35 @@ import org.apache.commons.math3.analysis.function.Sigmoid;
  * 
  */
 public class Utils {
+	// seconds an idle worker waits for new tasks before it exits
+	private static final long IDLE_TIMEOUT = 10;
+
+	/**
+	 * Creates a pool of daemon workers for the background tasks of the agents.
+	 * Idle workers exit after a few seconds, so a pool shared by all the runs
+	 * of the process does not hold any thread once a run is over and never
+	 * needs to be shut down.
+	 * 
+	 * @param name
+	 *            the name of the worker threads
+	 * @param threads
+	 *            the maximum number of workers
+	 */
+	public static ExecutorService daemonPool(final String name, int threads) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+				IDLE_TIMEOUT, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
 	/**
 	 * Used to scale values between a min and a max value (min-max
 	 * normalization)
@@ -30,7 +65,9 @@ public class Utils {
 	}
 
 	/**
-	 * Apply a sigmoid function between -1 and 1
+	 * Apply a sigmoid function between -1 and 1, this is the same as
+	 * {@link org.apache.commons.math3.analysis.function.Sigmoid Sigmoid(-1, 1)}
+	 * without creating a new function object on each call
 	 * 
 	 * @param value
 	 *            the value to be "squashed"
@@ -38,9 +75,7 @@ public class Utils {
 	 * @return the resulting value
 	 */
 	public static double squash(double value) {
-		Sigmoid sig = new Sigmoid(-1.0, 1.0);
-		double result = sig.value((double) value);
-		return result;
+		return -1.0 + 2.0 / (1 + FastMath.exp(-value));
 	}
 
 }
@@ -0,0 +1,88 @@
+package mimetic.desire;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestGlobalBest {
+	private static final int NUM_AGENTS = 50;
+	private static final int STEPS = 200;
+
+	/**
+	 * The global best as it was updated before, by each agent in index order
+	 * with the fitness at its current position.
+	 */
+	private static class SequentialBest {
+		double fitness = 0;
+		double x = 0;
+		double y = 0;
+		int agent = -1;
+
+		void update(double currVal, double currX, double currY, int index) {
+			if (currVal > fitness) {
+				fitness = currVal;
+				x = currX;
+				y = currY;
+				agent = index;
+			}
+		}
+	}
+
+	@Test
+	public void testMergeMatchesSequentialUpdate() {
+		// few distinct values so agents often tie
+		assertMergeMatches(new Random(42), 10);
+		assertMergeMatches(new Random(43), 1000000);
+	}
+
+	@Test
+	public void testMergeKeepsRecordOnTie() {
+		AgentState state = new AgentState(3);
+		setBest(state, 1, 5, 1, 1);
+		setBest(state, 2, 5, 2, 2);
+
+		GlobalBest best = new GlobalBest(5, 0, 0, -1);
+		assertSame(best, best.merge(state));
+
+		GlobalBest merged = new GlobalBest(0, 0, 0, -1).merge(state);
+		assertEquals(5, merged.fitness, 0);
+		assertEquals(1, merged.agent);
+		assertEquals(1, merged.x, 0);
+		assertEquals(1, merged.y, 0);
+	}
+
+	private static void assertMergeMatches(Random random, int values) {
+		AgentState state = new AgentState(NUM_AGENTS);
+		GlobalBest best = new GlobalBest(0, 0, 0, -1);
+		SequentialBest expected = new SequentialBest();
+
+		for (int step = 0; step < STEPS; step++) {
+			for (int i = 0; i < NUM_AGENTS; i++) {
+				double x = random.nextDouble();
+				double y = random.nextDouble();
+				double fitness = random.nextInt(values) + step;
+
+				// the personal best update of Agent#updateFitness
+				if (fitness > state.bestFitness[i])
+					setBest(state, i, fitness, x, y);
+				expected.update(fitness, x, y, i);
+			}
+
+			// the model merges once per step, after all agents were updated
+			best = best.merge(state);
+			assertEquals(expected.fitness, best.fitness, 0);
+			assertEquals(expected.x, best.x, 0);
+			assertEquals(expected.y, best.y, 0);
+			assertEquals(expected.agent, best.agent);
+		}
+	}
+
+	private static void setBest(AgentState state, int i, double fitness,
+			double x, double y) {
+		state.bestFitness[i] = fitness;
+		state.bestX[i] = x;
+		state.bestY[i] = y;
+	}
+}
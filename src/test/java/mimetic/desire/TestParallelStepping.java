@@ -0,0 +1,57 @@
+package mimetic.desire;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestParallelStepping {
+	private static final long SEED = 42;
+	private static final int NUM_AGENTS = 20;
+	private static final int STEPS = 50;
+
+	@Test
+	public void testSameRunWithOneAndManyThreads() {
+		MimeticDesire sequential = run(false, 1);
+		MimeticDesire single = run(true, 1);
+		MimeticDesire parallel = run(true, 4);
+
+		assertSameState(sequential, single);
+		assertSameState(sequential, parallel);
+	}
+
+	private static MimeticDesire run(boolean parallelStepping, int parallelism) {
+		MimeticDesire model = new MimeticDesire(SEED);
+		model.setNumAgents(NUM_AGENTS);
+		model.setParallelStepping(parallelStepping);
+		model.setParallelism(parallelism);
+		// small chunks so the agents are split across all the threads
+		model.setParallelChunkSize(2);
+
+		model.start();
+		try {
+			for (int i = 0; i < STEPS; i++)
+				model.schedule.step(model);
+		} finally {
+			model.finish();
+		}
+		return model;
+	}
+
+	private static void assertSameState(MimeticDesire expected,
+			MimeticDesire actual) {
+		AgentState e = expected.agentState;
+		AgentState a = actual.agentState;
+		assertArrayEquals(e.x, a.x, 0);
+		assertArrayEquals(e.y, a.y, 0);
+		assertArrayEquals(e.vx, a.vx, 0);
+		assertArrayEquals(e.vy, a.vy, 0);
+		assertArrayEquals(e.bestFitness, a.bestFitness, 0);
+
+		GlobalBest expectedBest = expected.getBest();
+		GlobalBest actualBest = actual.getBest();
+		assertEquals(expectedBest.fitness, actualBest.fitness, 0);
+		assertEquals(expectedBest.x, actualBest.x, 0);
+		assertEquals(expectedBest.y, actualBest.y, 0);
+		assertEquals(expectedBest.agent, actualBest.agent);
+	}
+}
@@ -0,0 +1,34 @@
+package mimetic.desire.behaviour;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestRacing {
+
+	@Test
+	public void testRejectsHopelessControllers() {
+		Racing racing = new Racing(Racing.DEFAULT_Z, 10, true);
+
+		// nothing finished yet, no controller can be rejected
+		assertFalse(racing.reject(100, -5, 1));
+
+		racing.finish(100, 2, 1);
+		assertTrue(racing.reject(100, 0, 1));
+		// too few samples or too uncertain to reject
+		assertFalse(racing.reject(5, 0, 1));
+		assertFalse(racing.reject(10, 0, 10));
+
+		racing.reset();
+		assertFalse(racing.reject(100, 0, 1));
+	}
+
+	@Test
+	public void testMinimizedScores() {
+		Racing racing = new Racing(Racing.DEFAULT_Z, 10, false);
+		racing.finish(100, 1, 1);
+
+		assertTrue(racing.reject(100, 3, 1));
+		assertFalse(racing.reject(100, 0.5, 1));
+	}
+}
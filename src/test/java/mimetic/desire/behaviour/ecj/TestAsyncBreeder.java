@@ -0,0 +1,109 @@
+package mimetic.desire.behaviour.ecj;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import mimetic.desire.behaviour.ecj.TestSharedEvolution.GenomeSum;
+
+import org.junit.Test;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.cgp.genome.CGPIndividual;
+import ec.util.MersenneTwisterFast;
+
+public class TestAsyncBreeder {
+	private static final String PARAMETER_FILE = "behaviour_evo.params";
+	private static final int GENERATIONS = 3;
+	private static final int LAG = 4;
+
+	@Test
+	public void testLagSwapsExactlyAfterLagSteps() {
+		AsyncBreeder breeder = new AsyncBreeder(newState(42), LAG);
+		try {
+			long step = 10;
+			Individual[] current = breeder.getIndividuals();
+			breeder.evolve(step);
+			assertTrue(breeder.isBreeding());
+
+			// the current generation stays in use until step + lag, even if
+			// the next one is ready
+			for (long s = step; s < step + LAG; s++) {
+				assertFalse(breeder.update(s));
+				assertSame(current, breeder.getIndividuals());
+				assertTrue(breeder.isBreeding());
+			}
+
+			assertTrue(breeder.update(step + LAG));
+			assertFalse(breeder.isBreeding());
+			assertNotSame(current, breeder.getIndividuals());
+			assertFalse(breeder.update(step + LAG + 1));
+		} finally {
+			breeder.finish();
+		}
+	}
+
+	@Test
+	public void testLagIsReproducible() {
+		AsyncBreeder synchronous = new AsyncBreeder(newState(42), 0);
+		AsyncBreeder lagged = new AsyncBreeder(newState(42), LAG);
+		AsyncBreeder whenReady = new AsyncBreeder(newState(42),
+				AsyncBreeder.WHEN_READY);
+		try {
+			long step = 0;
+			for (int g = 0; g < GENERATIONS; g++) {
+				synchronous.evolve(step);
+				lagged.evolve(step);
+				whenReady.evolve(step);
+				for (long s = step; s <= step + LAG; s++)
+					lagged.update(s);
+				while (!whenReady.update(step))
+					Thread.yield();
+				step += LAG + 1;
+
+				// the lag only delays the swap, the generations are the same
+				assertSameGenomes(synchronous.getIndividuals(),
+						lagged.getIndividuals());
+				assertSameGenomes(synchronous.getIndividuals(),
+						whenReady.getIndividuals());
+			}
+		} finally {
+			synchronous.finish();
+			lagged.finish();
+			whenReady.finish();
+		}
+	}
+
+	@Test
+	public void testFinishWaitsForBreeding() {
+		AsyncBreeder breeder = new AsyncBreeder(newState(42), LAG);
+		breeder.evolve(0);
+		breeder.finish();
+		assertFalse(breeder.isBreeding());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testInvalidLag() {
+		new AsyncBreeder(newState(42), -2);
+	}
+
+	private static EvolutionState newState(int seed) {
+		Map<String, String> overrides = new HashMap<>();
+		overrides.put("eval.problem", GenomeSum.class.getName());
+
+		EvolutionState state = EvoStateFactory.initialize(PARAMETER_FILE,
+				overrides, new MersenneTwisterFast(seed));
+		state.startFresh();
+		return state;
+	}
+
+	private static void assertSameGenomes(Individual[] expected,
+			Individual[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertArrayEquals(((CGPIndividual) expected[i]).genome,
+					((CGPIndividual) actual[i]).genome, 0);
+	}
+}
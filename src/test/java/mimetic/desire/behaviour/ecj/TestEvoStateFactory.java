@@ -0,0 +1,89 @@
+package mimetic.desire.behaviour.ecj;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+
+public class TestEvoStateFactory {
+
+	@Test
+	public void testParentsResolvedRelativeToResource() {
+		// evostate/child.params <- base.params <- ../evostate_root.params,
+		// and ./shared/extra.params as its second parent
+		Map<String, String> params = EvoStateFactory
+				.getParameters("evostate/child.params");
+
+		// a file hides its parents, parent 0 hides parent 1
+		assertEquals("child", params.get("a"));
+		assertEquals("base", params.get("b"));
+		assertEquals("base", params.get("c"));
+		assertEquals("extra", params.get("d"));
+		assertEquals("root", params.get("e"));
+		assertFalse(params.containsKey("parent.0"));
+		assertFalse(params.containsKey("parent.1"));
+	}
+
+	@Test
+	public void testOverrideBeatsInheritedValue() {
+		Map<String, String> overrides = new HashMap<>();
+		overrides.put("e", "override");
+		overrides.put("c", "override");
+
+		ParameterDatabase dbase = EvoStateFactory.createDatabase(
+				"evostate/child.params", overrides);
+		assertEquals("override", dbase.getString(new Parameter("e"), null));
+		assertEquals("override", dbase.getString(new Parameter("c"), null));
+		assertEquals("child", dbase.getString(new Parameter("a"), null));
+
+		// the cached parameters are not changed by the overrides
+		Map<String, String> params = EvoStateFactory
+				.getParameters("evostate/child.params");
+		assertEquals("root", params.get("e"));
+		assertEquals("base", params.get("c"));
+	}
+
+	@Test
+	public void testModelParameterFiles() {
+		// behaviour_evo.params <- cgp.params <- simple.params <- ec.params
+		Map<String, String> params = EvoStateFactory
+				.getParameters("behaviour_evo.params");
+		assertEquals("3", params.get("pop.subpop.0.size"));
+		assertEquals("99999", params.get("generations"));
+
+		Map<String, String> overrides = new HashMap<>();
+		overrides.put("generations", "7");
+		ParameterDatabase dbase = EvoStateFactory.createDatabase(
+				"behaviour_evo.params", overrides);
+		assertEquals("7", dbase.getString(new Parameter("generations"), null));
+		assertEquals("3",
+				dbase.getString(new Parameter("pop.subpop.0.size"), null));
+	}
+
+	@Test
+	public void testResolve() {
+		assertEquals("a/b/d.params",
+				EvoStateFactory.resolve("a/b/c.params", "d.params"));
+		assertEquals("a/b/d.params",
+				EvoStateFactory.resolve("a/b/c.params", "./d.params"));
+		assertEquals("a/d.params",
+				EvoStateFactory.resolve("a/b/c.params", "../d.params"));
+		assertEquals("d.params",
+				EvoStateFactory.resolve("a/b/c.params", "../../d.params"));
+		assertEquals("d.params", EvoStateFactory.resolve("c.params", "d.params"));
+		assertEquals("x/d.params",
+				EvoStateFactory.resolve("a/c.params", "/x/d.params"));
+		assertEquals("a/x/d.params",
+				EvoStateFactory.resolve("a/c.params", "x\\d.params"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testMissingFile() {
+		EvoStateFactory.getParameters("evostate/missing.params");
+	}
+}
@@ -0,0 +1,83 @@
+package mimetic.desire.behaviour.ecj;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Problem;
+import ec.cgp.FitnessCGP;
+import ec.cgp.genome.CGPIndividual;
+import ec.simple.SimpleProblemForm;
+import ec.util.MersenneTwisterFast;
+
+public class TestSharedEvolution {
+	private static final String PARAMETER_FILE = "behaviour_evo.params";
+	private static final int GENERATIONS = 3;
+
+	/**
+	 * Scores an individual with the sum of its genes, evaluation does not
+	 * depend on a behaviour.
+	 */
+	public static class GenomeSum extends Problem implements
+			SimpleProblemForm {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void evaluate(EvolutionState state, Individual ind,
+				int subpopulation, int threadnum) {
+			float sum = 0;
+			for (float gene : ((CGPIndividual) ind).genome)
+				sum += gene;
+			((FitnessCGP) ind.fitness).setFitness(state, sum, false);
+			ind.evaluated = true;
+		}
+	}
+
+	@Test
+	public void testDemeMatchesAgentState() {
+		Map<String, String> overrides = new HashMap<>();
+		overrides.put("eval.problem", GenomeSum.class.getName());
+
+		// the same agent random stream in both setups
+		EvolutionState state = EvoStateFactory.initialize(PARAMETER_FILE,
+				overrides, new MersenneTwisterFast(42));
+		state.startFresh();
+		AsyncBreeder agentPopulation = new AsyncBreeder(state, 0);
+
+		SharedEvolution engine = new SharedEvolution(PARAMETER_FILE,
+				overrides);
+		// other agents take demes before and after this one
+		engine.createDeme(new MersenneTwisterFast(7), 0);
+		Deme deme = engine.createDeme(new MersenneTwisterFast(42), 0);
+		engine.createDeme(new MersenneTwisterFast(8), 0);
+
+		try {
+			assertSameGenomes(agentPopulation.getIndividuals(),
+					deme.getIndividuals());
+			for (int g = 0; g < GENERATIONS; g++) {
+				agentPopulation.evolve(g);
+				deme.evolve(g);
+				assertSameGenomes(agentPopulation.getIndividuals(),
+						deme.getIndividuals());
+			}
+			assertEquals(GENERATIONS, deme.getGeneration());
+		} finally {
+			Evolve.cleanup(state);
+			engine.cleanup();
+		}
+	}
+
+	private static void assertSameGenomes(Individual[] expected,
+			Individual[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertArrayEquals(((CGPIndividual) expected[i]).genome,
+					((CGPIndividual) actual[i]).genome, 0);
+	}
+}
@@ -0,0 +1,94 @@
+package mimetic.desire.behaviour.ecj;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import mimetic.desire.behaviour.ecj.TestSharedEvolution.GenomeSum;
+
+import org.junit.Test;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.select.TournamentSelection;
+import ec.simple.SimpleProblemForm;
+import ec.util.MersenneTwisterFast;
+
+public class TestSteadyStateBreeder {
+	private static final String PARAMETER_FILE = "behaviour_evo.params";
+	private static final String SELECTION = "pop.subpop.0.species.pipe.source.0.source.";
+	private static final int SIZE = 10;
+
+	// individuals the tournaments could choose from in the last selection
+	private static Individual[] selectable;
+	private static boolean selectedUnevaluated;
+
+	/**
+	 * Tournament selection that records the individuals it selects from.
+	 */
+	public static class RecordingSelection extends TournamentSelection {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public int produce(int subpopulation, EvolutionState state, int thread) {
+			selectable = state.population.subpops[subpopulation].individuals;
+			for (Individual ind : selectable)
+				selectedUnevaluated |= !ind.evaluated;
+			return super.produce(subpopulation, state, thread);
+		}
+	}
+
+	@Test
+	public void testReplacesOneSlotFromEvaluated() {
+		Map<String, String> overrides = new HashMap<>();
+		overrides.put("eval.problem", GenomeSum.class.getName());
+		overrides.put("pop.subpop.0.size", Integer.toString(SIZE));
+		overrides.put(SELECTION + "0", RecordingSelection.class.getName());
+		overrides.put(SELECTION + "1", RecordingSelection.class.getName());
+
+		EvolutionState state = EvoStateFactory.initialize(PARAMETER_FILE,
+				overrides, new MersenneTwisterFast(42));
+		state.startFresh();
+		try {
+			SteadyStateBreeder breeder = new SteadyStateBreeder(state);
+			Individual[] individuals = state.population.subpops[0].individuals;
+			assertEquals(SIZE, individuals.length);
+
+			// two controllers were used up before
+			SimpleProblemForm problem = (SimpleProblemForm) state.evaluator.p_problem;
+			problem.evaluate(state, individuals[2], 0, 0);
+			problem.evaluate(state, individuals[5], 0, 0);
+
+			Individual[] before = individuals.clone();
+			selectable = null;
+			selectedUnevaluated = false;
+			Individual child = breeder.replace(7);
+
+			// the tournaments only saw the evaluated individuals, including
+			// the one being replaced
+			assertNotNull(selectable);
+			assertFalse(selectedUnevaluated);
+			assertEquals(3, selectable.length);
+			assertSame(before[2], selectable[0]);
+			assertSame(before[5], selectable[1]);
+			assertSame(before[7], selectable[2]);
+			assertTrue(before[7].evaluated);
+
+			// only the used up slot has a new individual
+			Individual[] after = state.population.subpops[0].individuals;
+			assertSame(individuals, after);
+			for (int i = 0; i < SIZE; i++) {
+				if (i == 7)
+					continue;
+				assertSame(before[i], after[i]);
+			}
+			assertSame(child, after[7]);
+			assertNotSame(before[7], child);
+			assertFalse(child.evaluated);
+		} finally {
+			Evolve.cleanup(state);
+		}
+	}
+}
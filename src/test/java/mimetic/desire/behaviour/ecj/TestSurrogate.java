@@ -0,0 +1,159 @@
+package mimetic.desire.behaviour.ecj;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.cgp.FitnessCGP;
+import ec.cgp.genome.CGPIndividual;
+
+public class TestSurrogate {
+	private static final double DELTA = 1e-6;
+
+	@Test
+	public void testPredictsMeanOfNearest() {
+		Surrogate surrogate = new Surrogate(8, 2);
+		assertTrue(Double.isNaN(surrogate.predict(individual(0, 0))));
+
+		surrogate.add(individual(0, 0), 10);
+		// a single score is the prediction for anything
+		assertEquals(10, surrogate.predict(individual(5, 5)), DELTA);
+
+		surrogate.add(individual(1, 0), 20);
+		surrogate.add(individual(0, 3), 40);
+		surrogate.add(individual(10, 10), 1000);
+		// individuals without records are ignored
+		surrogate.add(individual(0.1f, 0), Double.NaN);
+		assertEquals(4, surrogate.getSize());
+
+		// nearest are (1, 0) and (0, 0)
+		assertEquals(15, surrogate.predict(individual(0.8f, 0)), DELTA);
+		// nearest are (0, 3) and (0, 0)
+		assertEquals(25, surrogate.predict(individual(0, 2)), DELTA);
+		// nearest are (10, 10) and (0, 3)
+		assertEquals(520, surrogate.predict(individual(9, 9)), DELTA);
+	}
+
+	@Test
+	public void testReplacesOldestScores() {
+		Surrogate surrogate = new Surrogate(2, 1);
+		surrogate.add(individual(0), 1);
+		surrogate.add(individual(10), 2);
+		surrogate.add(individual(20), 3);
+
+		assertEquals(2, surrogate.getSize());
+		// (0) was replaced by (20), (10) is now the nearest to 0
+		assertEquals(2, surrogate.predict(individual(0)), DELTA);
+		assertEquals(3, surrogate.predict(individual(18)), DELTA);
+	}
+
+	@Test
+	public void testEveryoneRunsDuringWarmUp() {
+		Surrogate surrogate = new Surrogate(8, 1);
+		surrogate.add(individual(0), 1);
+		surrogate.add(individual(1), 2);
+
+		// fewer scores than individuals
+		Individual[] generation = { individual(0), individual(1),
+				individual(2) };
+		boolean[] live = surrogate.screen(new EvolutionState(), generation,
+				0.5, true);
+		assertAllLive(generation, live);
+
+		// enough scores, but every individual should run
+		surrogate.add(individual(2), 3);
+		live = surrogate.screen(new EvolutionState(), generation, 1, true);
+		assertAllLive(generation, live);
+	}
+
+	@Test
+	public void testRunsBestPredictions() {
+		Surrogate surrogate = new Surrogate(8, 1);
+		for (int i = 0; i < 4; i++)
+			surrogate.add(individual(i * 10), i);
+
+		// predicted scores 1, 3, 0, 2
+		Individual[] generation = { individual(11), individual(29),
+				individual(-1), individual(21) };
+		boolean[] live = surrogate.screen(new EvolutionState(), generation,
+				0.5, true);
+
+		assertLive(new boolean[] { false, true, false, true }, live);
+		assertScreened(generation[0], 1);
+		assertScreened(generation[2], 0);
+		assertFalse(generation[1].evaluated);
+		assertFalse(generation[3].evaluated);
+	}
+
+	@Test
+	public void testRunsBestPredictionsWhenMinimizing() {
+		Surrogate surrogate = new Surrogate(8, 1);
+		for (int i = 0; i < 4; i++)
+			surrogate.add(individual(i * 10), i);
+
+		// predicted scores 1, 3, 0, 2
+		Individual[] generation = { individual(11), individual(29),
+				individual(-1), individual(21) };
+		boolean[] live = surrogate.screen(new EvolutionState(), generation,
+				0.25, false);
+
+		assertLive(new boolean[] { false, false, true, false }, live);
+		assertScreened(generation[0], 1);
+		assertScreened(generation[1], 3);
+		assertScreened(generation[3], 2);
+		assertFalse(generation[2].evaluated);
+	}
+
+	@Test
+	public void testTiesRunExactlyTheFraction() {
+		Surrogate surrogate = new Surrogate(8, 1);
+		for (int i = 0; i < 4; i++)
+			surrogate.add(individual(i), 5);
+
+		Individual[] generation = { individual(0), individual(1),
+				individual(2), individual(3) };
+		// at least one individual runs
+		boolean[] live = surrogate.screen(new EvolutionState(), generation,
+				0.1, true);
+
+		int numLive = 0;
+		for (int i = 0; i < generation.length; i++) {
+			if (live[i]) {
+				numLive++;
+				assertFalse(generation[i].evaluated);
+			} else {
+				assertScreened(generation[i], 5);
+			}
+		}
+		assertEquals(1, numLive);
+		assertTrue(live[0]);
+	}
+
+	private static CGPIndividual individual(float... genome) {
+		CGPIndividual ind = new CGPIndividual();
+		ind.genome = genome;
+		ind.fitness = new FitnessCGP();
+		return ind;
+	}
+
+	// junit has no boolean array assertion
+	private static void assertLive(boolean[] expected, boolean[] live) {
+		assertEquals(Arrays.toString(expected), Arrays.toString(live));
+	}
+
+	private static void assertAllLive(Individual[] generation, boolean[] live) {
+		for (int i = 0; i < generation.length; i++) {
+			assertTrue(live[i]);
+			assertFalse(generation[i].evaluated);
+		}
+	}
+
+	private static void assertScreened(Individual ind, double predicted) {
+		assertTrue(ind.evaluated);
+		assertEquals(predicted, ((FitnessCGP) ind.fitness).fitness(), DELTA);
+	}
+}
@@ -0,0 +1,219 @@
+package mimetic.desire.behaviour.ecj.eval;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import mimetic.desire.behaviour.ecj.EvoStateFactory;
+
+import org.junit.Test;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.cgp.genome.CGPIndividual;
+import ec.util.MersenneTwisterFast;
+
+public class TestCGPCompiler {
+
+	// gene that selects value v out of n
+	private static float gene(int v, int n) {
+		return (v + 0.5f) / n;
+	}
+
+	@Test
+	public void testCompiledProgram() {
+		int f = CGPFunctions.NUM_FUNCTIONS;
+		CGPCompiler compiler = new CGPCompiler(2, 3, 2);
+
+		float[] genome = new float[] {
+				// node 0 (register 2) = x + y
+				gene(CGPFunctions.ADD, f), gene(0, 2), gene(1, 2),
+				// node 1 (register 3) = node 0 * x
+				gene(CGPFunctions.MUL, f), gene(2, 3), gene(0, 3),
+				// node 2 (register 4) = node 1 / y
+				gene(CGPFunctions.DIV, f), gene(3, 4), gene(1, 4),
+				// outputs node 1 and node 2
+				gene(3, 5), gene(4, 5) };
+		assertEquals(compiler.getGenomeLength(), genome.length);
+
+		CGPProgram program = compiler.compile(genome);
+		double[] registers = new double[program.getNumRegisters()];
+		double[] out = new double[2];
+
+		program.run(new double[] { 2, 3 }, registers, out);
+		assertEquals((2 + 3) * 2, out[0], 0);
+		assertEquals(10.0 / 3, out[1], 1e-12);
+
+		assertTrue(program.matches(genome.clone()));
+		genome[0] = gene(CGPFunctions.SUB, f);
+		assertFalse(program.matches(genome));
+	}
+
+	@Test
+	public void testInactiveNodesAreRemoved() {
+		int f = CGPFunctions.NUM_FUNCTIONS;
+		CGPCompiler compiler = new CGPCompiler(2, 3, 1);
+
+		float[] genome = new float[] {
+				// node 0 (register 2) = x - y, inactive
+				gene(CGPFunctions.SUB, f), gene(0, 2), gene(1, 2),
+				// node 1 (register 3) = sin(y), the second input is ignored
+				gene(CGPFunctions.SIN, f), gene(1, 3), gene(2, 3),
+				// node 2 (register 4) = node 1 * x
+				gene(CGPFunctions.MUL, f), gene(3, 4), gene(0, 4),
+				// output node 2
+				gene(4, 5) };
+
+		boolean[] active = compiler.activeNodes(genome);
+		assertFalse(active[0]);
+		assertTrue(active[1]);
+		assertTrue(active[2]);
+
+		CGPProgram program = compiler.compile(genome);
+		assertEquals(2, program.getNumNodes());
+		assertEquals(2.0 / 3, program.getActiveNodeRatio(), 1e-12);
+
+		double[] out = new double[1];
+		program.run(new double[] { 2, 3 }, new double[program
+				.getNumRegisters()], out);
+		assertEquals(Math.sin(3) * 2, out[0], 0);
+	}
+
+	@Test
+	public void testGeneBounds() {
+		assertEquals(0, CGPCompiler.decode(0f, 6));
+		assertEquals(5, CGPCompiler.decode(1f, 6));
+		assertEquals(1, CGPFunctions.div(3, 0), 0);
+		assertEquals(-1, CGPFunctions.cmp(1, 2), 0);
+	}
+
+	@Test
+	public void testBytecodeMatchesCompiledProgram() {
+		Random random = new Random(7);
+		// enough nodes to need wide local variable indexes
+		CGPCompiler compiler = new CGPCompiler(6, 200, 2);
+		double[] inputs = new double[6];
+		double[] expected = new double[2];
+		double[] actual = new double[2];
+
+		for (int g = 0; g < 50; g++) {
+			float[] genome = new float[compiler.getGenomeLength()];
+			for (int i = 0; i < genome.length; i++)
+				genome[i] = random.nextFloat();
+
+			CGPProgram program = compiler.compile(genome);
+			double[] registers = new double[program.getNumRegisters()];
+			CGPBytecodeProgram generated = CGPBytecodeGenerator
+					.generate(program);
+
+			for (int t = 0; t < 10; t++) {
+				for (int i = 0; i < inputs.length; i++)
+					inputs[i] = random.nextGaussian();
+				inputs[5] = 0;
+
+				program.run(inputs, registers, expected);
+				generated.run(inputs, actual);
+				assertArrayEquals(expected, actual, 0);
+			}
+		}
+	}
+
+	@Test
+	public void testBytecodeCacheSharesPrograms() {
+		CGPCompiler compiler = new CGPCompiler(2, 3, 1);
+		float[] genome = new float[compiler.getGenomeLength()];
+		for (int i = 0; i < genome.length; i++)
+			genome[i] = 0.3f;
+
+		CGPBytecodeProgram a = CGPBytecodeGenerator.get(compiler
+				.compile(genome));
+		CGPBytecodeProgram b = CGPBytecodeGenerator.get(compiler
+				.compile(genome.clone()));
+		assertSame(a, b);
+	}
+
+	@Test
+	public void testBatchProgramSharesNodes() {
+		Random random = new Random(11);
+		CGPCompiler compiler = new CGPCompiler(6, 30, 2);
+		CGPProgram[] programs = new CGPProgram[20];
+		int totalNodes = 0;
+		float[] genome = new float[compiler.getGenomeLength()];
+		for (int p = 0; p < programs.length; p++) {
+			// every other program is a copy of the previous one, all of its
+			// nodes are shared
+			if (p % 2 == 0)
+				for (int i = 0; i < genome.length; i++)
+					genome[i] = random.nextFloat();
+			programs[p] = compiler.compile(genome.clone());
+			totalNodes += programs[p].getNumNodes();
+		}
+
+		CGPBatchProgram batch = CGPBatchProgram.merge(programs);
+		assertTrue(batch.getNumNodes() <= totalNodes / 2);
+
+		double[] inputs = new double[6];
+		double[] registers = new double[batch.getNumRegisters()];
+		double[] results = new double[programs.length];
+		double[] expected = new double[2];
+		for (int i = 0; i < inputs.length; i++)
+			inputs[i] = random.nextGaussian();
+
+		batch.run(inputs, registers, 1, results);
+		for (int p = 0; p < programs.length; p++) {
+			programs[p].run(inputs,
+					new double[programs[p].getNumRegisters()], expected);
+			assertEquals(expected[1], results[p], 0);
+		}
+	}
+
+	// parameter files of the behaviours, each with its own cgp species
+	private static final String[] PARAMETER_FILES = { "competition.params",
+			"mimetic_behaviour.params", "fitness_exploitation.params",
+			"social_fitness.params", "behaviour_evo.params",
+			"objective_evo.params" };
+
+	@Test
+	public void testCompiledProgramsMatchInterpreter() {
+		Random random = new Random(13);
+		for (String file : PARAMETER_FILES) {
+			EvolutionState state = EvoStateFactory.initialize(file, null,
+					new MersenneTwisterFast(file.hashCode()));
+			state.startFresh();
+
+			CGPCompiler compiler = CGPCompiler.forState(state);
+			InterpretedCGPEvaluator interpreter = new InterpretedCGPEvaluator(
+					compiler.getNumInputs());
+			CompiledCGPEvaluator compiled = new CompiledCGPEvaluator(compiler);
+			double[] inputs = new double[compiler.getNumInputs()];
+			double[] expected = new double[compiler.getNumOutputs()];
+			double[] actual = new double[compiler.getNumOutputs()];
+
+			for (Individual ind : state.population.subpops[0].individuals) {
+				CGPIndividual cgp = (CGPIndividual) ind;
+				CGPBytecodeProgram generated = CGPBytecodeGenerator
+						.generate(compiled.getProgram(cgp));
+
+				for (int t = 0; t < 5; t++) {
+					for (int i = 0; i < inputs.length; i++)
+						inputs[i] = random.nextGaussian();
+
+					interpreter.evaluate(cgp, inputs, expected);
+					compiled.evaluate(cgp, inputs, actual);
+					assertOutputs(file, expected, actual);
+					generated.run(inputs, actual);
+					assertOutputs(file, expected, actual);
+				}
+			}
+			Evolve.cleanup(state);
+		}
+	}
+
+	private static void assertOutputs(String file, double[] expected,
+			double[] actual) {
+		for (int o = 0; o < expected.length; o++)
+			assertEquals(file, expected[o], actual[o],
+					1e-9 * Math.max(1, Math.abs(expected[o])));
+	}
+}
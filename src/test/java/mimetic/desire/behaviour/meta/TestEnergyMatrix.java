@@ -0,0 +1,111 @@
+package mimetic.desire.behaviour.meta;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestEnergyMatrix {
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testMatchesTwoPass() {
+		Random random = new Random(42);
+		EnergyMatrix matrix = new EnergyMatrix(3, 4);
+		double[][] samples = new double[12][];
+
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 4; col++) {
+				// one pair has a single sample
+				int n = row == 1 && col == 2 ? 1 : 1 + random.nextInt(200);
+				double[] values = new double[n];
+				for (int i = 0; i < n; i++) {
+					values[i] = 1000 + random.nextGaussian() * 50;
+					matrix.add(row, col, values[i]);
+				}
+				samples[row * 4 + col] = values;
+			}
+		}
+
+		for (int row = 0; row < 3; row++)
+			for (int col = 0; col < 4; col++)
+				assertStats(samples[row * 4 + col], matrix.get(row, col));
+	}
+
+	@Test
+	public void testClearRow() {
+		EnergyMatrix matrix = new EnergyMatrix(2, 2);
+		EnergyStats cleared = matrix.get(0, 1);
+		for (int i = 0; i < 5; i++) {
+			matrix.add(0, 0, i);
+			matrix.add(0, 1, i);
+			matrix.add(1, 1, i);
+		}
+
+		matrix.clearRow(0);
+		assertEmpty(matrix.get(0, 0));
+		assertEmpty(cleared);
+		assertStats(new double[] { 0, 1, 2, 3, 4 }, matrix.get(1, 1));
+
+		// samples added after clearing start a new series
+		matrix.add(0, 1, 7);
+		matrix.add(0, 1, -3);
+		assertStats(new double[] { 7, -3 }, cleared);
+	}
+
+	@Test
+	public void testClear() {
+		EnergyMatrix matrix = new EnergyMatrix(2, 2);
+		matrix.add(0, 0, 1);
+		matrix.add(1, 1, 2);
+
+		matrix.clear();
+		for (int row = 0; row < 2; row++)
+			for (int col = 0; col < 2; col++)
+				assertEmpty(matrix.get(row, col));
+
+		matrix.add(1, 1, 5);
+		assertStats(new double[] { 5 }, matrix.get(1, 1));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testOutOfBounds() {
+		new EnergyMatrix(2, 2).add(2, 0, 1);
+	}
+
+	private static void assertStats(double[] values, EnergyStats stats) {
+		int n = values.length;
+		double mean = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (double v : values) {
+			mean += v;
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+		}
+		mean /= n;
+
+		double variance = 0;
+		for (double v : values)
+			variance += (v - mean) * (v - mean);
+		variance = n == 1 ? 0 : variance / (n - 1);
+
+		assertEquals(n, stats.getN());
+		assertEquals(mean, stats.getMean(), DELTA * Math.abs(mean));
+		assertEquals(variance, stats.getVariance(), DELTA
+				* Math.max(variance, 1));
+		assertEquals(Math.sqrt(variance), stats.getStandardDeviation(), DELTA
+				* Math.max(variance, 1));
+		assertEquals(min, stats.getMin(), 0);
+		assertEquals(max, stats.getMax(), 0);
+	}
+
+	private static void assertEmpty(EnergyStats stats) {
+		assertEquals(0, stats.getN());
+		assertTrue(Double.isNaN(stats.getMean()));
+		assertTrue(Double.isNaN(stats.getVariance()));
+		assertTrue(Double.isNaN(stats.getMin()));
+		assertTrue(Double.isNaN(stats.getMax()));
+	}
+}
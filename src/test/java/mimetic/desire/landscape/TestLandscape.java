@@ -0,0 +1,73 @@
+package mimetic.desire.landscape;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import mimetic.desire.AgentState;
+
+import org.junit.Test;
+
+import sim.app.pso.Booth;
+import sim.app.pso.Evaluatable;
+import sim.app.pso.Griewangk;
+import sim.app.pso.Rastrigin;
+import sim.app.pso.Rosenbrock;
+
+public class TestLandscape {
+	private static final int NUM_AGENTS = 1000;
+	// positions cover the whole world, which is centered on the origin
+	private static final double RANGE = 10.24;
+	// the functions are rewritten without the same operation order guarantee
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testBooth() {
+		assertBatchMatches(new BoothLandscape(), new Booth());
+	}
+
+	@Test
+	public void testRastrigin() {
+		assertBatchMatches(new RastriginLandscape(), new Rastrigin());
+	}
+
+	@Test
+	public void testGriewangk() {
+		assertBatchMatches(new GriewangkLandscape(), new Griewangk());
+	}
+
+	@Test
+	public void testRosenbrock() {
+		assertBatchMatches(new RosenbrockLandscape(), new Rosenbrock());
+	}
+
+	@Test
+	public void testEvaluatable() {
+		Evaluatable f = new Rastrigin();
+		assertBatchMatches(new EvaluatableLandscape(f), f);
+	}
+
+	/*
+	 * the batch evaluation of every agent must give the fitness each agent
+	 * computed on its own with the original function
+	 */
+	private static void assertBatchMatches(Landscape landscape, Evaluatable f) {
+		Random random = new Random(42);
+		AgentState batch = new AgentState(NUM_AGENTS);
+		AgentState perAgent = new AgentState(NUM_AGENTS);
+		for (int i = 0; i < NUM_AGENTS; i++) {
+			double x = (random.nextDouble() - 0.5) * RANGE;
+			double y = (random.nextDouble() - 0.5) * RANGE;
+			batch.moveTo(i, x, y);
+			perAgent.moveTo(i, x, y);
+		}
+
+		batch.evaluate(landscape);
+		for (int i = 0; i < NUM_AGENTS; i++) {
+			assertTrue(batch.fitnessValid[i]);
+			assertEquals(perAgent.fitness(i, f), batch.fitness[i], DELTA);
+			assertEquals(landscape.calcFitness(batch.x[i], batch.y[i]),
+					batch.fitness[i], 0);
+		}
+	}
+}
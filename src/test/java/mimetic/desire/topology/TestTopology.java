@@ -0,0 +1,202 @@
+package mimetic.desire.topology;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ec.util.MersenneTwisterFast;
+
+public class TestTopology {
+
+	@Test
+	public void testRingMatchesWindow() {
+		int numAgents = 25;
+		int size = 10;
+		Neighbourhood n = new RingTopology().build(numAgents, size,
+				new MersenneTwisterFast(1));
+
+		for (int agent = 0; agent < numAgents; agent++) {
+			assertEquals(size, n.size(agent));
+
+			int start = (agent - size / 2);
+			if (start < 0)
+				start += numAgents;
+			for (int i = 0; i < size; i++)
+				assertEquals((start + i) % numAgents, n.get(agent, i));
+		}
+	}
+
+	@Test
+	public void testVonNeumannLattice() {
+		Neighbourhood n = new VonNeumannTopology().build(16, 4,
+				new MersenneTwisterFast(1));
+
+		// agent 5 is at (1,1) on a 4x4 torus
+		assertEquals(4, n.size(5));
+		assertHasNeighbour(n, 5, 1);
+		assertHasNeighbour(n, 5, 4);
+		assertHasNeighbour(n, 5, 6);
+		assertHasNeighbour(n, 5, 9);
+		assertSimpleAndSymmetric(n);
+	}
+
+	@Test
+	public void testSmallWorld() {
+		int numAgents = 200;
+		Neighbourhood n = new SmallWorldTopology(0.2).build(numAgents, 6,
+				new MersenneTwisterFast(7));
+
+		// rewiring keeps the number of edges
+		assertEquals(numAgents * 6, n.neighbours.length);
+		assertSimpleAndSymmetric(n);
+
+		Neighbourhood lattice = new SmallWorldTopology(0).build(numAgents,
+				6, new MersenneTwisterFast(7));
+		for (int agent = 0; agent < numAgents; agent++)
+			assertEquals(6, lattice.size(agent));
+	}
+
+	@Test
+	public void testRandomRegular() {
+		int numAgents = 500;
+		Neighbourhood n = new RandomRegularTopology().build(numAgents, 10,
+				new MersenneTwisterFast(3));
+
+		for (int agent = 0; agent < numAgents; agent++)
+			assertEquals(10, n.size(agent));
+		assertSimpleAndSymmetric(n);
+	}
+
+	@Test
+	public void testTinyPopulationsHaveNeighbours() {
+		Topology[] topologies = { new RingTopology(),
+				new VonNeumannTopology(), new SmallWorldTopology(0.2),
+				new RandomRegularTopology() };
+
+		for (Topology topology : topologies) {
+			for (int numAgents = 1; numAgents <= 2; numAgents++) {
+				for (int size = 1; size <= 4; size++) {
+					Neighbourhood n = topology.build(numAgents, size,
+							new MersenneTwisterFast(1));
+					for (int agent = 0; agent < numAgents; agent++)
+						assertTrue(n.size(agent) > 0);
+				}
+			}
+		}
+
+		// a single agent falls back to itself
+		Neighbourhood n = new SmallWorldTopology(0).build(1, 6,
+				new MersenneTwisterFast(1));
+		assertEquals(1, n.size(0));
+		assertEquals(0, n.get(0, 0));
+
+		// two agents with a neighbourhood too small for a lattice edge
+		n = new SmallWorldTopology(0).build(2, 1, new MersenneTwisterFast(1));
+		assertEquals(0, n.get(0, 0));
+		assertEquals(1, n.get(1, 0));
+
+		// two agents can be connected to each other
+		n = new VonNeumannTopology().build(2, 4, new MersenneTwisterFast(1));
+		assertEquals(1, n.get(0, 0));
+		assertEquals(0, n.get(1, 0));
+	}
+
+	@Test
+	public void testSpatialIndexMatchesBruteForce() {
+		int numAgents = 300;
+		double size = 20.24;
+		MersenneTwisterFast random = new MersenneTwisterFast(11);
+
+		double[] x = new double[numAgents];
+		double[] y = new double[numAgents];
+		for (int i = 0; i < numAgents; i++) {
+			x[i] = random.nextDouble() * size - size * 0.5;
+			y[i] = random.nextDouble() * size - size * 0.5;
+		}
+
+		double radius = 1.5;
+		SpatialIndex index = new SpatialIndex(size, size, radius, numAgents);
+		index.rebuild(x, y);
+
+		Neighbourhood n = new Neighbourhood(new int[numAgents + 1],
+				new int[numAgents]);
+		index.withinRadius(x, y, radius, n);
+
+		for (int i = 0; i < numAgents; i++) {
+			int expected = 0;
+			for (int j = 0; j < numAgents; j++) {
+				if (j != i && distance(x, y, i, j, size) <= radius) {
+					expected++;
+					assertHasNeighbour(n, i, j);
+				}
+			}
+			assertEquals(Math.max(expected, 1), n.size(i));
+		}
+
+		int k = 7;
+		SpatialIndex nearest = new SpatialIndex(size, size,
+				SpatialIndex.cellSizeForNearest(size, size, numAgents, k),
+				numAgents);
+		nearest.rebuild(x, y);
+		nearest.nearest(x, y, k, n);
+
+		for (int i = 0; i < numAgents; i++) {
+			assertEquals(k, n.size(i));
+			double farthest = distance(x, y, i, n.get(i, k - 1), size);
+
+			// nobody outside the neighbourhood is closer than the k-th
+			int closer = 0;
+			for (int j = 0; j < numAgents; j++) {
+				if (j != i && distance(x, y, i, j, size) < farthest)
+					closer++;
+			}
+			assertTrue(closer < k);
+		}
+	}
+
+	@Test
+	public void testSpatialIndexSingleAgent() {
+		double size = 20.24;
+		double[] x = { 1 };
+		double[] y = { 2 };
+		Neighbourhood n = new Neighbourhood(new int[2], new int[0]);
+
+		SpatialIndex index = new SpatialIndex(size, size,
+				SpatialIndex.cellSizeForNearest(size, size, 1, 7), 1);
+		index.rebuild(x, y);
+		index.nearest(x, y, 7, n);
+		assertEquals(1, n.size(0));
+		assertEquals(0, n.get(0, 0));
+
+		index.withinRadius(x, y, 1.5, n);
+		assertEquals(1, n.size(0));
+		assertEquals(0, n.get(0, 0));
+	}
+
+	private double distance(double[] x, double[] y, int i, int j, double size) {
+		double dx = Math.abs(x[i] - x[j]);
+		double dy = Math.abs(y[i] - y[j]);
+		dx = Math.min(dx, size - dx);
+		dy = Math.min(dy, size - dy);
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private void assertHasNeighbour(Neighbourhood n, int agent, int neighbour) {
+		for (int i = 0; i < n.size(agent); i++)
+			if (n.get(agent, i) == neighbour)
+				return;
+		fail(neighbour + " is not a neighbour of " + agent);
+	}
+
+	private void assertSimpleAndSymmetric(Neighbourhood n) {
+		for (int agent = 0; agent < n.getNumAgents(); agent++) {
+			for (int i = 0; i < n.size(agent); i++) {
+				int neighbour = n.get(agent, i);
+				assertTrue(neighbour != agent);
+				for (int j = i + 1; j < n.size(agent); j++)
+					assertTrue(n.get(agent, j) != neighbour);
+				assertHasNeighbour(n, neighbour, agent);
+			}
+		}
+	}
+}
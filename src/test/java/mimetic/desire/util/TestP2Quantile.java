@@ -0,0 +1,42 @@
+package mimetic.desire.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestP2Quantile {
+
+	@Test
+	public void testSmallSampleIsExact() {
+		P2Quantile median = new P2Quantile(0.5);
+		assertTrue(Double.isNaN(median.getResult()));
+
+		median.add(3);
+		median.add(1);
+		median.add(2);
+		assertEquals(2, median.getResult(), 0);
+	}
+
+	@Test
+	public void testEstimateCloseToSampleQuantile() {
+		Random random = new Random(42);
+		int n = 10000;
+		double[] values = new double[n];
+
+		P2Quantile median = new P2Quantile(0.5);
+		P2Quantile p95 = new P2Quantile(0.95);
+		for (int i = 0; i < n; i++) {
+			values[i] = random.nextGaussian();
+			median.add(values[i]);
+			p95.add(values[i]);
+		}
+		Arrays.sort(values);
+
+		assertEquals(n, median.getN());
+		assertEquals(values[n / 2], median.getResult(), 0.05);
+		assertEquals(values[(int) (0.95 * n)], p95.getResult(), 0.05);
+	}
+}
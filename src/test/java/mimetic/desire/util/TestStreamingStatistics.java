@@ -0,0 +1,51 @@
+package mimetic.desire.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+public class TestStreamingStatistics {
+
+	@Test
+	public void testMatchesDescriptiveStatistics() {
+		Random random = new Random(3);
+		StreamingStatistics stats = new StreamingStatistics();
+		DescriptiveStatistics expected = new DescriptiveStatistics();
+		assertTrue(Double.isNaN(stats.getMean()));
+
+		for (int i = 0; i < 1000; i++) {
+			double value = 1 + random.nextDouble() * 10;
+			stats.add(value);
+			expected.addValue(value);
+		}
+
+		assertEquals(expected.getN(), stats.getN());
+		assertEquals(expected.getMean(), stats.getMean(), 1e-10);
+		assertEquals(expected.getVariance(), stats.getVariance(), 1e-10);
+		assertEquals(expected.getMin(), stats.getMin(), 0);
+		assertEquals(expected.getMax(), stats.getMax(), 0);
+		assertEquals(expected.getGeometricMean(), stats.getGeometricMean(),
+				1e-10);
+	}
+
+	@Test
+	public void testWindowKeepsRecentValues() {
+		StreamingStatistics stats = new StreamingStatistics(3);
+		for (int i = 1; i <= 5; i++)
+			stats.add(i);
+
+		assertEquals(3, stats.getWindowN());
+		assertEquals(5, stats.getRecent(0), 0);
+		assertEquals(3, stats.getRecent(2), 0);
+		assertEquals(4, stats.getWindowMean(), 0);
+		assertEquals(3, stats.getMean(), 0);
+
+		stats.clear();
+		assertEquals(0, stats.getWindowN());
+		stats.add(7);
+		assertEquals(7, stats.getRecent(0), 0);
+	}
+}